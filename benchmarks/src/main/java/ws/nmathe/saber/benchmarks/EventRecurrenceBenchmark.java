@@ -0,0 +1,63 @@
+package ws.nmathe.saber.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ws.nmathe.saber.core.schedule.EventRecurrence;
+
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures computing an event's next occurrence, its remaining occurrences,
+ * and parsing the RFC5545 recurrence rules of imported Google Calendar events
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventRecurrenceBenchmark
+{
+    @Param({
+            "RRULE:FREQ=DAILY;INTERVAL=2",
+            "RRULE:FREQ=WEEKLY;BYDAY=MO,WE,FR;COUNT=30",
+            "RRULE:FREQ=MONTHLY;BYDAY=2TU;INTERVAL=1",
+            "RRULE:FREQ=MONTHLY;BYMONTHDAY=15;UNTIL=20301231T000000Z",
+            "RRULE:FREQ=YEARLY"
+    })
+    public String rule;
+
+    private List<String> rfc5545;
+    private ZonedDateTime start;
+    private EventRecurrence recurrence;
+    private EventRecurrence counted;
+
+    @Setup
+    public void setup()
+    {
+        this.rfc5545 = Collections.singletonList(this.rule);
+        this.start = ZonedDateTime.now(Fixtures.ZONE).minusWeeks(10);
+        this.recurrence = new EventRecurrence(this.rfc5545, this.start);
+        this.counted = new EventRecurrence(this.rfc5545, this.start).setCount(52);
+    }
+
+    @Benchmark
+    public EventRecurrence parseRule()
+    {
+        return new EventRecurrence(this.rfc5545, this.start);
+    }
+
+    @Benchmark
+    public ZonedDateTime next()
+    {
+        return this.recurrence.next(this.start);
+    }
+
+    @Benchmark
+    public Integer countRemaining()
+    {
+        return this.counted.countRemaining();
+    }
+}
@@ -0,0 +1,168 @@
+package ws.nmathe.saber.benchmarks;
+
+import org.bson.Document;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.schedule.ScheduleManager;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.*;
+
+/**
+ * Shared setup for the benchmarks
+ * Replaces the bot's schedule manager with one which answers from constants instead of the database,
+ * and provides sample event documents and proxies standing in for JDA entities.
+ */
+public class Fixtures
+{
+    public static final String CHANNEL_ID = "300000000000000000";
+    public static final String GUILD_ID   = "200000000000000000";
+    public static final ZoneId ZONE       = ZoneId.of("America/New_York");
+
+    private static boolean installed = false;
+
+    /**
+     * installs the stub schedule manager, safe to call from every benchmark's setup
+     * Installing the stub runs Main's static initialization, which constructs the bot's other managers.
+     * Those only read saber.toml (if present in the working directory) and create thread pools; the database
+     * and discord are only connected by Main.main.
+     */
+    public static synchronized void install()
+    {
+        if(installed) return;
+        try
+        {
+            Field field = Main.class.getDeclaredField("scheduleManager");
+            field.setAccessible(true);
+            field.set(null, new StubScheduleManager());
+            installed = true;
+        }
+        catch(ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Unable to install the stub schedule manager", e);
+        }
+    }
+
+    /**
+     * creates an event document as it would be read from the events collection
+     * @param hasStarted if the event has started
+     * @return event document
+     */
+    public static Document eventDocument(boolean hasStarted)
+    {
+        ZonedDateTime start = ZonedDateTime.now(ZONE).plusHours(hasStarted ? -1 : 3);
+        ZonedDateTime end = start.plusHours(2);
+
+        ArrayList<String> comments = new ArrayList<>(Arrays.asList(
+                "Bring your own snacks",
+                "Voice channel opens %{[at ]s} 15 minutes before the start",
+                "%{[Going: ]rsvp Yes}%{[ (]mention Yes[)]}"));
+
+        Map<String, List<String>> rsvpMembers = new LinkedHashMap<>();
+        rsvpMembers.put("Yes", new ArrayList<>(Arrays.asList("100000000000000001", "100000000000000002", "100000000000000003")));
+        rsvpMembers.put("No", new ArrayList<>(Collections.singletonList("100000000000000004")));
+        Map<String, Integer> rsvpLimits = new LinkedHashMap<>();
+        rsvpLimits.put("Yes", 10);
+
+        List<Date> reminders = new ArrayList<>();
+        reminders.add(Date.from(start.minusMinutes(60).toInstant()));
+        reminders.add(Date.from(start.minusMinutes(10).toInstant()));
+
+        return new Document()
+                .append("_id", 1234567)
+                .append("messageId", "400000000000000000")
+                .append("channelId", CHANNEL_ID)
+                .append("guildId", GUILD_ID)
+                .append("title", "Weekly Raid Night")
+                .append("start", Date.from(start.toInstant()))
+                .append("end", Date.from(end.toInstant()))
+                .append("comments", comments)
+                .append("hasStarted", hasStarted)
+                .append("recurrence", 4 | (0b0010101 | 1<<7)<<3)    // weekly on monday, wednesday, and friday
+                .append("count", 12)
+                .append("reminders", reminders)
+                .append("end_reminders", new ArrayList<Date>())
+                .append("rsvp_members", rsvpMembers)
+                .append("rsvp_limits", rsvpLimits)
+                .append("url", "https://example.com/raid")
+                .append("location", "Discord voice");
+    }
+
+    /**
+     * creates a proxy implementing an interface, methods named in the map return the mapped value
+     * and all other methods return null or the primitive default
+     * @param type the interface
+     * @param returns method names mapped to return values
+     * @return proxy instance
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T stub(Class<T> type, Map<String, Object> returns)
+    {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (proxy, method, args) ->
+        {
+            if(returns.containsKey(method.getName())) return returns.get(method.getName());
+            Class<?> returnType = method.getReturnType();
+            if(returnType == boolean.class) return false;
+            if(returnType == long.class) return 0L;
+            if(returnType == int.class) return 0;
+            if(returnType == double.class) return 0d;
+            if(returnType == float.class) return 0f;
+            if(returnType == short.class) return (short) 0;
+            if(returnType == byte.class) return (byte) 0;
+            if(returnType == char.class) return (char) 0;
+            return null;
+        });
+    }
+
+    /**
+     * schedule settings answered from constants
+     */
+    private static class StubScheduleManager extends ScheduleManager
+    {
+        private final Map<String, String> rsvpOptions = new LinkedHashMap<>();
+
+        StubScheduleManager()
+        {
+            this.rsvpOptions.put("\u2705", "Yes");
+            this.rsvpOptions.put("\u274C", "No");
+        }
+
+        @Override
+        public boolean isASchedule(String cId)
+        {
+            return true;
+        }
+
+        @Override
+        public String getClockFormat(String cId)
+        {
+            return "12";
+        }
+
+        @Override
+        public ZoneId getTimeZone(String cId)
+        {
+            return ZONE;
+        }
+
+        @Override
+        public String getStyle(String cId)
+        {
+            return "full";
+        }
+
+        @Override
+        public boolean isRSVPEnabled(String cId)
+        {
+            return true;
+        }
+
+        @Override
+        public Map<String, String> getRSVPOptions(String cId)
+        {
+            return this.rsvpOptions;
+        }
+    }
+}
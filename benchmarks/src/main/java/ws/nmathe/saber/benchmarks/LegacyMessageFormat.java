@@ -0,0 +1,339 @@
+package ws.nmathe.saber.benchmarks;
+
+import org.apache.commons.lang3.StringUtils;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.schedule.ScheduleEntry;
+import ws.nmathe.saber.utils.ParsingUtilities;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regex based message format parser which was replaced by MessageTemplate,
+ * kept unchanged as the baseline of MessageFormatBenchmark
+ */
+class LegacyMessageFormat
+{
+    static String parse(String format, ScheduleEntry entry, boolean displayComments)
+    {
+        // determine time formatter from schedule settings
+        String clock = Main.getScheduleManager().getClockFormat(entry.getChannelId());
+        DateTimeFormatter timeFormatter;
+        if(clock.equalsIgnoreCase("12"))
+             timeFormatter = DateTimeFormatter.ofPattern("hh:mm a");
+        else
+             timeFormatter = DateTimeFormatter.ofPattern("HH:mm");
+
+        // advanced parsing
+        /*
+         * parses the format string using regex grouping
+         * allows for an 'if element exists, print string + element + string' type of insertion
+         */
+        Matcher matcher = Pattern.compile("%\\{(.*?)}").matcher(format);
+        while(matcher.find())
+        {
+            String group = matcher.group();
+            String trimmed = group.substring(2, group.length()-1);
+            StringBuilder sub = new StringBuilder();
+            if(!trimmed.isEmpty())
+            {
+                Matcher matcher2 = Pattern.compile("\\[.*?]").matcher(trimmed);
+                if(trimmed.matches("(\\[.*?])?c\\d+(\\[.*?])?") && displayComments) // advanced comment
+                {
+                    int i = Integer.parseInt(trimmed.replaceAll("(\\[.*?])?c|\\[.*?]", ""));
+                    if(entry.getComments().size() >= i && i > 0)
+                    {
+                        sub.append(messageFormatHelper(entry.getComments().get(i - 1), matcher2));
+                    }
+                }
+                else if(trimmed.matches("(\\[.*?])?s(\\[.*?])?")) // advanced start
+                {
+                    if(!entry.hasStarted())
+                    {
+                        while(matcher2.find())
+                        {
+                            sub.append(matcher2.group().replaceAll("[\\[\\]]", ""));
+                        }
+                    }
+                }
+                else if(trimmed.matches("(\\[.*?])?e(\\[.*?])?")) // advanced end
+                {
+                    if(entry.hasStarted())
+                    {
+                        while(matcher2.find())
+                        {
+                            sub.append(matcher2.group().replaceAll("[\\[\\]]", ""));
+                        }
+                    }
+                }
+                else if(trimmed.matches("(\\[.*?])?m(\\[.*?])?")) // advanced remind in minutes
+                {
+                    if(!entry.hasStarted())
+                    {
+                        long minutes = ZonedDateTime.now().until(entry.getStart(), ChronoUnit.MINUTES);
+                        if(minutes>0)
+                        {
+                            sub.append(messageFormatHelper("" + (minutes + 1), matcher2));
+                        }
+                    }
+                    else
+                    {
+                        long minutes = ZonedDateTime.now().until(entry.getEnd(), ChronoUnit.MINUTES);
+                        if(minutes>0)
+                        {
+                            sub.append(messageFormatHelper(""+(minutes+1), matcher2));
+                        }
+                    }
+                }
+                else if(trimmed.matches("(\\[.*?])?h(\\[.*?])?")) // advanced remind in hours
+                {
+                    if(!entry.hasStarted())
+                    {
+                        long minutes = ZonedDateTime.now().until(entry.getStart(), ChronoUnit.MINUTES);
+                        if(minutes>0)
+                        {
+                            sub.append(messageFormatHelper(""+(minutes+1)/60, matcher2));
+                        }
+                    }
+                    else
+                    {
+                        long minutes = ZonedDateTime.now().until(entry.getEnd(), ChronoUnit.MINUTES);
+                        if(minutes>0)
+                        {
+                            sub.append(messageFormatHelper(""+(minutes+1)/60, matcher2));
+                        }
+                    }
+                }
+                else if(trimmed.matches("(\\[.*?])?rsvp .+(\\[.*?])?")) // rsvp count
+                {
+                    String name = trimmed.replaceAll("rsvp ","").replaceAll("\\[.*?]","");
+                    List<String> members = entry.getRsvpMembers().get(name);
+                    if(members != null)
+                    {
+                        sub.append(messageFormatHelper(""+members.size(), matcher2));
+                    }
+                }
+                else if(trimmed.matches("(\\[.*?])?mention .+(\\[.*?])?")) // rsvp mentions
+                {
+                    String name = trimmed.replaceAll("mention ","").replaceAll("\\[.*?]","");
+                    List<String> members = entry.getRsvpMembers().get(name);
+                    if(members != null)
+                    {
+                        /*
+                        Role role = entry.spawnRole(name);
+                        sub += messageFormatHelper("<@&"+role.getId()+">", matcher2);
+                        */
+                        StringBuilder userMentions = new StringBuilder();
+                        List<String> users = entry.getRsvpMembersOfType(name);
+                        for(int i=0; i<users.size(); i++)
+                        {
+                            if (users.get(i).matches("\\d+"))
+                                userMentions.append("<@").append(users.get(i)).append(">");
+                            if (!(i+1<users.size()))
+                                userMentions.append(" ");
+                        }
+                        sub.append(messageFormatHelper(userMentions.toString(), matcher2));
+                    }
+                }
+                else if(trimmed.matches("(\\[.*?])?u(\\[.*?])?")) // advanced title url
+                {
+                    if(entry.getTitleUrl() != null)
+                    {
+                        sub.append(messageFormatHelper(entry.getTitleUrl(), matcher2));
+                    }
+                }
+                else if(trimmed.matches("(\\[.*?])?v(\\[.*?])?")) // advanced image url
+                {
+                    if(entry.getImageUrl() != null)
+                    {
+                        sub.append(messageFormatHelper(entry.getImageUrl(), matcher2));
+                    }
+                }
+                else if(trimmed.matches("(\\[.*?])?w(\\[.*?])?")) // advanced thumbnail url
+                {
+                    if(entry.getThumbnailUrl() != null)
+                    {
+                        sub.append(messageFormatHelper(entry.getThumbnailUrl(), matcher2));
+                    }
+                }
+            }
+            format = format.replace(group, sub.toString());
+        }
+
+        // legacy parsing
+        /*
+         * parses the format string character by character looking for % characters
+         * a token is one % character followed by a key character
+         */
+        StringBuilder announceMsg = new StringBuilder();
+        for( int i = 0; i < format.length(); i++ )
+        {
+            char ch = format.charAt(i);
+            if(ch == '%' && i+1 < format.length())
+            {
+                i++;
+                ch = format.charAt(i);
+                switch(ch)
+                {
+                    case 'c' :
+                        if(i+1 < format.length() && displayComments)
+                        {
+                            ch = format.charAt(i+1);
+                            if( Character.isDigit( ch ) )
+                            {
+                                i++;
+                                int x = Integer.parseInt("" + ch);
+                                if(entry.getComments().size()>=x && x!=0)
+                                {
+                                    String parsedComment = LegacyMessageFormat.parse(entry.getComments().get(x - 1), entry, false);
+                                    announceMsg.append(parsedComment);
+                                }
+                            }
+                        }
+                        break;
+                    case 'f' :
+                        if(displayComments)
+                        {
+                            for(String comment : entry.getComments())
+                            {
+                                String parsedComment = LegacyMessageFormat.parse(comment, entry, false);
+                                announceMsg.append(parsedComment).append("\n");
+                            }
+                        }
+                        break;
+                    case 'a' :
+                        if(!entry.hasStarted())
+                        {
+                            announceMsg.append("begins");
+                            long minutes = ZonedDateTime.now().until(entry.getStart(), ChronoUnit.MINUTES);
+                            if(minutes>0)
+                            {
+                                if(minutes > 120)
+                                    announceMsg.append(" in ").append((minutes + 1) / 60).append(" hours");
+                                else
+                                    announceMsg.append(" in ").append(minutes + 1).append(" minutes");
+                            }
+                        }
+                        else
+                        {
+                            announceMsg.append("ends");
+                            long minutes = ZonedDateTime.now().until(entry.getEnd(), ChronoUnit.MINUTES);
+                            if(minutes>0)
+                            {
+                                if(minutes > 120)
+                                    announceMsg.append(" in ").append((minutes + 1) / 60).append(" hours");
+                                else
+                                    announceMsg.append(" in ").append(minutes + 1).append(" minutes");
+                            }
+                        }
+                        break;
+                    case 'b' :
+                        if( !entry.hasStarted() )
+                            announceMsg.append("begins");
+                        else
+                            announceMsg.append("ends");
+                        break;
+                    case 'x' :
+                        if(!entry.hasStarted())
+                        {
+                            long minutes = ZonedDateTime.now().until(entry.getStart(), ChronoUnit.MINUTES);
+                            if(minutes>0)
+                            {
+                                if(minutes > 120)
+                                    announceMsg.append(" in ").append((minutes + 1) / 60).append(" hours");
+                                else
+                                    announceMsg.append(" in ").append(minutes + 1).append(" minutes");
+                            }
+                        }
+                        else
+                        {
+                            long minutes = ZonedDateTime.now().until(entry.getEnd(), ChronoUnit.MINUTES);
+                            if(minutes>0)
+                            {
+                                if(minutes > 120)
+                                    announceMsg.append(" in ").append((minutes + 1) / 60).append(" hours");
+                                else
+                                    announceMsg.append(" in ").append(minutes + 1).append(" minutes");
+                            }
+                        }
+                        break;
+                    case 's':
+                        announceMsg.append(entry.getStart().format(timeFormatter));
+                        break;
+                    case 'e':
+                        announceMsg.append(entry.getEnd().format(timeFormatter));
+                        break;
+                    case 't' :
+                        announceMsg.append(entry.getTitle());
+                        break;
+                    case 'd' :
+                        announceMsg.append(String.format("%02d",entry.getStart().getDayOfMonth()));
+                        break;
+                    case 'D' :
+                        announceMsg.append(StringUtils.capitalize(entry.getStart().getDayOfWeek().toString()));
+                        break;
+                    case 'm' :
+                        announceMsg.append(String.format("%02d",entry.getStart().getMonthValue()));
+                        break;
+                    case 'M' :
+                        announceMsg.append(StringUtils.capitalize(entry.getStart().getMonth().toString()));
+                        break;
+                    case 'y' :
+                        announceMsg.append(entry.getStart().getYear());
+                        break;
+                    case 'i':
+                        announceMsg.append(ParsingUtilities.intToEncodedID(entry.getId()));
+                        break;
+                    case '%' :
+                        announceMsg.append('%');
+                        break;
+                    case 'u' :
+                        announceMsg.append(entry.getTitleUrl() == null ? "" : entry.getTitleUrl());
+                        break;
+                    case 'v' :
+                        announceMsg.append(entry.getImageUrl() == null ? "" : entry.getImageUrl());
+                        break;
+                    case 'w':
+                        announceMsg.append(entry.getThumbnailUrl() == null ? "" : entry.getThumbnailUrl());
+                        break;
+                    case 'n':
+                        announceMsg.append("\n");
+                        break;
+                    case 'h':
+                        announceMsg.append(String.format("%02d",entry.getStart().getHour()));
+                        break;
+                    case 'k':
+                        announceMsg.append(String.format("%02d",entry.getStart().getMinute()));
+                        break;
+                    case 'l':
+                        announceMsg.append(entry.getLocation());
+                        break;
+                }
+            }
+            else
+            {
+                announceMsg.append(ch);
+            }
+        }
+
+        return announceMsg.toString();
+    }
+
+    /**
+     * aids parse() in parsing strings for advanced substitution
+     */
+    private static String messageFormatHelper(String insert, Matcher matcher)
+    {
+        String str = "";
+        if(matcher.find())
+            str += matcher.group().replaceAll("[\\[\\]]", "");
+        str += insert;
+        if(matcher.find())
+            str += matcher.group().replaceAll("[\\[\\]]", "");
+        return str;
+    }
+}
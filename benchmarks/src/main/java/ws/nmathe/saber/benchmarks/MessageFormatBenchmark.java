@@ -0,0 +1,48 @@
+package ws.nmathe.saber.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ws.nmathe.saber.core.schedule.ScheduleEntry;
+import ws.nmathe.saber.utils.ParsingUtilities;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compiled message templates used by ParsingUtilities.parseMessageFormat()
+ * against the regex based parser they replaced
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageFormatBenchmark
+{
+    @Param({
+            "Event %a: ``%t``",                                                 // the default announcement format
+            "@here %t %b at %s %x! %{[Location: ]l}%n%f",
+            "%{[Starting in ]m[ minutes]} %t%{[ (]rsvp Yes[ going)]}%{[ ]mention Yes} %{[more info: ]u}"
+    })
+    public String format;
+
+    private ScheduleEntry entry;
+
+    @Setup
+    public void setup()
+    {
+        Fixtures.install();
+        this.entry = new ScheduleEntry(Fixtures.eventDocument(false));
+    }
+
+    @Benchmark
+    public String compiled()
+    {
+        return ParsingUtilities.parseMessageFormat(this.format, this.entry, true);
+    }
+
+    @Benchmark
+    public String legacy()
+    {
+        return LegacyMessageFormat.parse(this.format, this.entry, true);
+    }
+}
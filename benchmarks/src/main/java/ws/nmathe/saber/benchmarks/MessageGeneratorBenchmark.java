@@ -0,0 +1,37 @@
+package ws.nmathe.saber.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ws.nmathe.saber.core.schedule.MessageGenerator;
+import ws.nmathe.saber.core.schedule.ScheduleEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures generating the body of an event's display, which is redone on every display refresh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageGeneratorBenchmark
+{
+    @Param({"false", "true"})
+    public boolean hasStarted;
+
+    private ScheduleEntry entry;
+
+    @Setup
+    public void setup()
+    {
+        Fixtures.install();
+        this.entry = new ScheduleEntry(Fixtures.eventDocument(this.hasStarted));
+    }
+
+    @Benchmark
+    public String generateBody()
+    {
+        return MessageGenerator.generateBody(this.entry);
+    }
+}
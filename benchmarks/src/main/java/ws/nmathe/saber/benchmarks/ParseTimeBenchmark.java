@@ -0,0 +1,28 @@
+package ws.nmathe.saber.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ws.nmathe.saber.utils.ParsingUtilities;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of user supplied times by the create and edit commands
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseTimeBenchmark
+{
+    @Param({"7:30pm", "19:30", "7pm", "19", "24:00", "90min"})
+    public String input;
+
+    @Benchmark
+    public LocalTime parseTime()
+    {
+        return ParsingUtilities.parseTime(this.input);
+    }
+}
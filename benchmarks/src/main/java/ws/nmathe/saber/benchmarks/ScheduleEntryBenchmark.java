@@ -0,0 +1,34 @@
+package ws.nmathe.saber.benchmarks;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+import ws.nmathe.saber.core.schedule.ScheduleEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding an event document into a ScheduleEntry, done for every event read from the database
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScheduleEntryBenchmark
+{
+    private Document document;
+
+    @Setup
+    public void setup()
+    {
+        Fixtures.install();
+        this.document = Fixtures.eventDocument(false);
+    }
+
+    @Benchmark
+    public ScheduleEntry decode()
+    {
+        return new ScheduleEntry(this.document);
+    }
+}
@@ -0,0 +1,46 @@
+package ws.nmathe.saber.core.command;
+
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
+import org.openjdk.jmh.annotations.*;
+import ws.nmathe.saber.benchmarks.Fixtures;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures splitting a command message into its arguments,
+ * placed in the command package as the parser is package-private
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandParserBenchmark
+{
+    @Param({
+            "!list",
+            "!create #events \"Weekly Raid Night\" 12/24 7:30pm 10:00pm repeat \"mo, we, fr\" interval 1",
+            "!edit 0A3F comment add \"Bring your own snacks and a headset\" url https://example.com/raid"
+    })
+    public String content;
+
+    private CommandParser parser;
+    private MessageReceivedEvent event;
+
+    @Setup
+    public void setup()
+    {
+        this.parser = new CommandParser();
+        Message message = Fixtures.stub(Message.class, Collections.singletonMap("getRawContent", this.content));
+        this.event = new MessageReceivedEvent(null, 0, message);
+    }
+
+    @Benchmark
+    public CommandParser.CommandContainer parse()
+    {
+        return this.parser.parse(this.event, "!");
+    }
+}
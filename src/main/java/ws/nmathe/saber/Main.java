@@ -1,5 +1,6 @@
 package ws.nmathe.saber;
 
+import ws.nmathe.saber.core.ExecutorManager;
 import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.core.command.CommandHandler;
 import ws.nmathe.saber.core.database.Driver;
@@ -17,6 +18,7 @@ import ws.nmathe.saber.utils.Logging;
  */
 public class Main
 {
+    private static ExecutorManager executorManager = new ExecutorManager();
     private static ShardManager shardManager;
     private static BotSettingsManager botSettingsManager = new BotSettingsManager();
     private static EntryManager entryManager = new EntryManager();
@@ -33,16 +35,26 @@ public class Main
     {
         if(botSettingsManager.hasSettings())
         {
+            botSettingsManager.generateFile();
             Logging.info(Main.class, "A 'saber.toml' configuration file has been created. Add your " +
                     "bot token to the file and restart the bot.\n");
             System.exit(0);
         }
 
         mongoDriver.init();         // ready database
+
+        // write out any buffered database updates when the process is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            executorManager.shutdown();
+            mongoDriver.getEventWriter().shutdown();
+        }));
+
         calendarConverter.init();   // connect to calendar service
 
         // create the shard manager
         shardManager = new ShardManager(botSettingsManager.getShards(), botSettingsManager.getShardTotal());
+        shardManager.start();       // log in the shards
     }
 
     /*
@@ -88,4 +100,9 @@ public class Main
     {
         return mongoDriver;
     }
+
+    public static ExecutorManager getExecutorManager()
+    {
+        return executorManager;
+    }
 }
@@ -1,11 +1,14 @@
 package ws.nmathe.saber.commands.admin;
 
+import com.google.common.cache.CacheStats;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.ChannelType;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.commands.Command;
 import ws.nmathe.saber.commands.CommandInfo;
 import ws.nmathe.saber.utils.MessageUtilities;
+import ws.nmathe.saber.utils.RequestQueue;
+import ws.nmathe.saber.utils.UrlValidator;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 
 import java.lang.management.ManagementFactory;
@@ -40,12 +43,32 @@ public class StatsCommand implements Command
         JDA.ShardInfo info = event.getJDA().getShardInfo();
         Runtime rt = Runtime.getRuntime();
         RuntimeMXBean rb = ManagementFactory.getRuntimeMXBean();
+        CacheStats schedCache = Main.getScheduleManager().getSettingsCacheStats();
+        CacheStats listCache = Main.getScheduleManager().getGuildSchedulesCacheStats();
+        CacheStats guildCache = Main.getGuildSettingsManager().getSettingsCacheStats();
+        CacheStats urlCache = UrlValidator.getCacheStats();
 
         String msg = "```python\n" +
                 "\"Database\"\n" +
                 "      Entries: " + Main.getDBDriver().getEventCollection().count() + "\n" +
                 "    Schedules: " + Main.getDBDriver().getScheduleCollection().count() + "\n" +
                 "       Guilds: " + Main.getDBDriver().getGuildCollection().count() + "\n" +
+                "\n\"Caches\"\n" +
+                "    Schedules: " + schedCache.hitCount() + " hits, " + schedCache.missCount() + " misses, " +
+                        schedCache.evictionCount() + " evictions\n" +
+                "  Memberships: " + listCache.hitCount() + " hits, " + listCache.missCount() + " misses, " +
+                        listCache.evictionCount() + " evictions\n" +
+                "       Guilds: " + guildCache.hitCount() + " hits, " + guildCache.missCount() + " misses, " +
+                        guildCache.evictionCount() + " evictions\n" +
+                "         Urls: " + urlCache.hitCount() + " hits, " + urlCache.missCount() + " misses, " +
+                        urlCache.evictionCount() + " evictions\n" +
+                "\n\"Displays\"\n" +
+                "        Edits: " + Main.getEntryManager().getEditsSent() + " sent, " +
+                        Main.getEntryManager().getEditsSuppressed() + " suppressed\n" +
+                "\n\"Requests\"\n" +
+                RequestQueue.getStatusString() +
+                "\n\"Executors\"\n" +
+                Main.getExecutorManager().getStatusString() +
                 "\n\"Shard\"\n" +
                 "      ShardId: " + info.getShardId() + "/" + info.getShardTotal() + "\n" +
                 "       Guilds: " + event.getJDA().getGuilds().size() + "\n" +
@@ -56,7 +56,10 @@ public class ConfigCommand implements Command
         String cont2 = "Events can be configured to send reminder announcements at configured thresholds before an event begins.\n" +
                         "To configure the times at which events on the schedule should send reminders, use the 'remind' with an " +
                         "argument containing the relative times to remind delimited by spaces (see examples).\n" +
-                        "Reminder messages are defined by a configured format, see below.";
+                        "Reminder messages are defined by a configured format, see below." +
+                        "\n\n" +
+                        "Schedules with many events can turn on the ``digest`` option, announcements and reminders which are " +
+                        "sent to the same channel at the same time are then combined into a single message.";
         info.addUsageCategory(cat2, cont2);
 
         String cat3 = "+ Custom announcements and reminders";
@@ -95,6 +98,7 @@ public class ConfigCommand implements Command
         info.addUsageExample(cmd + " #guild_events end-remind \"10 min\"");
         info.addUsageExample(cmd + " #events_channel chan \"general\"");
         info.addUsageExample(cmd + " #events_channel remind-msg \"reset\"");
+        info.addUsageExample(cmd + " #events_channel digest on");
         info.addUsageExample(cmd + " #schedule rsvp on");
         info.addUsageExample(cmd + " #schedule rsvp add DPS :crossed_swords:");
         info.addUsageExample(cmd + " #schedule rsvp remove Undecided");
@@ -354,6 +358,29 @@ public class ConfigCommand implements Command
                     }
                     break;
 
+                case "di":
+                case "digest":
+                    if (args.length < 3)
+                    {
+                        return "That's not enough arguments!\n" +
+                                "Use ``" + cmd + " [#chan] digest <on|off>`` to combine announcements and reminders " +
+                                "which are sent to the same channel at the same time into one message.";
+                    }
+                    switch(args[index].toLowerCase())
+                    {
+                        case "yes":
+                        case "no":
+                        case "false":
+                        case "true":
+                        case "on":
+                        case "off":
+                            break;
+
+                        default:
+                            return "Digest mode should be either *on* or *off*!";
+                    }
+                    break;
+
                 case "rsvp":
                     if (args.length < 3)
                     {
@@ -637,10 +664,8 @@ public class ConfigCommand implements Command
                                 ScheduleEntry se = Main.getEntryManager().getEntry(id);
                                 if(se.getStart().isAfter(se.getEnd()))
                                 {
-                                    Main.getDBDriver().getEventCollection().updateOne(
-                                            eq("_id", id),
-                                            set("end", Date.from(se.getEnd().plusDays(1).toInstant()))
-                                    );
+                                    Main.getDBDriver().getEventWriter().set(id,
+                                            "end", Date.from(se.getEnd().plusDays(1).toInstant()));
                                 }
 
                                 // reload the entry's display to match new timezone
@@ -773,6 +798,21 @@ public class ConfigCommand implements Command
                     MessageUtilities.sendMsg(this.genMsgStr(cId, Mode.REM, event.getJDA()), event.getChannel(), null);
                     break;
 
+                case "di":
+                case "digest":
+                    boolean digest = true;
+                    switch(args[index].toLowerCase())
+                    {
+                        case "no":
+                        case "false":
+                        case "off":
+                            digest = false;
+                            break;
+                    }
+                    Main.getScheduleManager().setDigest(cId, digest);
+                    MessageUtilities.sendMsg(this.genMsgStr(cId, Mode.REM, event.getJDA()), event.getChannel(), null);
+                    break;
+
                 case "rsvp":
                     boolean enabled = Main.getScheduleManager().isRSVPEnabled(cId);
                     Map<String, String> options = Main.getScheduleManager().getRSVPOptions(cId);
@@ -1138,6 +1178,7 @@ public class ConfigCommand implements Command
                         (Main.getScheduleManager().isRemindChanOverridden(cId) ?
                                 "\"" + this.channelIdentifierToString(remindChanIdentifier, jda) + "\"":
                                 "(using [chan])") +
+                        "\n[digest]      " + (Main.getScheduleManager().isDigestEnabled(cId) ? "on" : "off") +
                         "```";
 
                 if(mode == Mode.REM) break;
@@ -1,6 +1,5 @@
 package ws.nmathe.saber.commands.general;
 
-import net.dv8tion.jda.core.entities.Message;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.commands.Command;
 import ws.nmathe.saber.commands.CommandInfo;
@@ -102,12 +101,11 @@ public class DeleteCommand implements Command
             // delete single event
             Integer entryId = ParsingUtilities.encodeIDToInt(args[0]);
             ScheduleEntry entry = Main.getEntryManager().getEntry(entryId);
-            Message msg = entry.getMessageObject();
-            if( msg==null )
+            if( entry==null || entry.getChannelObject()==null )
                 return;
 
             Main.getEntryManager().removeEntry(entryId);
-            MessageUtilities.deleteMsg(msg, null);
+            entry.deleteMessage();
             MessageUtilities.sendMsg("The event with :id: " +
                     ParsingUtilities.intToEncodedID(entryId) + " removed.", event.getChannel(), null);
         }
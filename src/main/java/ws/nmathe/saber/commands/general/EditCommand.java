@@ -754,6 +754,8 @@ public class EditCommand implements Command
                         break;
                 }
             }
+            // the next calendar sync should restore the calendar's version of a synced event
+            se.setImportHash(null);
             Main.getEntryManager().updateEntry(se, true);
         }
 
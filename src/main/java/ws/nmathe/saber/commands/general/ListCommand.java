@@ -248,7 +248,7 @@ public class ListCommand implements Command
                         }
                         else // otherwise, remove the member from the event and update
                         {
-                            se.getRsvpMembersOfType(type).remove(id);
+                            se.removeRsvpMember(type, id);
                             Main.getEntryManager().updateEntry(se, false);
                         }
                     }
@@ -166,16 +166,16 @@ public class SyncCommand implements Command
 
                 // set user who has authorized the sync
                 if(GoogleAuth.authorize(event.getAuthor().getId()) != null)
-                    Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("sync_user", event.getAuthor().getId()));
+                    Main.getScheduleManager().setSyncUser(cId, event.getAuthor().getId());
                 else
-                    Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("sync_user", null));
+                    Main.getScheduleManager().setSyncUser(cId, null);
             }
         }
 
         if(importFlag)
         {
-            Main.getCalendarConverter().importCalendar(address, channel, service);
             Main.getScheduleManager().setAddress(cId,address);
+            Main.getCalendarConverter().importCalendar(address, channel, service);
 
             String content = "I have finished syncing <#" + cId + ">!";
             MessageUtilities.sendMsg(content, event.getChannel(), null);
@@ -31,8 +31,6 @@ import static com.mongodb.client.model.Filters.eq;
  */
 public class EventListener extends ListenerAdapter
 {
-    private final RateLimiter reactionLimiter = new RateLimiter(500);
-
     @Override
     public void onReady(ReadyEvent event)
     {
@@ -103,7 +101,7 @@ public class EventListener extends ListenerAdapter
         }
 
         // if channel is a schedule for the guild
-        if (Main.getScheduleManager().getSchedulesForGuild(event.getGuild().getId()).contains(event.getChannel().getId()))
+        if (Main.getScheduleManager().isGuildSchedule(event.getGuild().getId(), event.getChannel().getId()))
         {
             // delete all other user's messages
             if (!userId.equals(event.getJDA().getSelfUser().getId()))
@@ -234,6 +232,8 @@ public class EventListener extends ListenerAdapter
         {
             Main.getDBDriver().getEventCollection().deleteMany(eq("channelId", cId));
             Main.getDBDriver().getScheduleCollection().deleteOne(eq("_id", cId));
+            Main.getScheduleManager().invalidateSettings(cId);
+            Main.getScheduleManager().invalidateGuildSchedules(event.getGuild().getId());
         }
     }
 
@@ -251,10 +251,9 @@ public class EventListener extends ListenerAdapter
             // check each rsvp group on the entry
             for(String key : se.getRsvpMembers().keySet())
             {
-                if(se.getRsvpMembersOfType(key).contains(memberId))
+                // remove the user and flag the entry for updating
+                if(se.removeRsvpMember(key, memberId))
                 {
-                    // remove the user and flag the entry for updating
-                    se.getRsvpMembersOfType(key).remove(memberId);
                     updateFlag = true;
                 }
             }
@@ -278,8 +277,6 @@ public class EventListener extends ListenerAdapter
         // don't process reactions added by the bot
         if(event.getUser().getId().equals(event.getJDA().getSelfUser().getId())) return;
 
-        if(reactionLimiter.isOnCooldown(event.getUser().getId())) return;
-
         // if the schedule is rsvp enabled and the user added an rsvp emoji to the event
         // add the user to the appropriate rsvp list and remove the emoji
         try
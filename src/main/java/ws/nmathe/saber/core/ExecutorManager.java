@@ -0,0 +1,271 @@
+package ws.nmathe.saber.core;
+
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Central registry of the worker thread pools used by the bot
+ * Every pool is bounded in both threads and queued tasks so that a burst of work in one area
+ * (such as a display refresh pass over many events) cannot exhaust native threads or
+ * starve the other pools.  Queue depth, active threads, and task latency are tracked per pool.
+ */
+public class ExecutorManager
+{
+    /**
+     * the named pools, with their thread limit, queue limit, and what is done when both are full
+     */
+    public enum pool
+    {
+        COMMAND(16, 500, policy.ABORT),         // user and admin commands
+        DISPLAY(8, 10000, policy.DISCARD),      // event display reloads, a discarded refresh fires again after a delay
+        EVENT(8, 100, policy.ABORT),            // event start/end/remind/announce processing, see EntryDrain
+        SYNC(4, 1000, policy.CALLER_RUNS),      // google calendar sync jobs
+        VERIFY(4, 1000, policy.CALLER_RUNS);    // url reachability checks
+
+        private final int threads;
+        private final int queueSize;
+        private final policy rejection;
+
+        pool(int threads, int queueSize, policy rejection)
+        {
+            this.threads = threads;
+            this.queueSize = queueSize;
+            this.rejection = rejection;
+        }
+    }
+
+    private enum policy { ABORT, DISCARD, CALLER_RUNS }
+
+    private final Map<pool, InstrumentedExecutor> executors = new EnumMap<>(pool.class);
+
+    public ExecutorManager()
+    {
+        for(pool p : pool.values())
+        {
+            this.executors.put(p, new InstrumentedExecutor(p));
+        }
+    }
+
+    /**
+     * retrieves a pool from the registry
+     * @param p which pool
+     * @return the pool's executor
+     */
+    public ExecutorService get(pool p)
+    {
+        return this.executors.get(p);
+    }
+
+    /**
+     * @param p which pool
+     * @return number of tasks waiting to be run by the pool
+     */
+    public int getQueueDepth(pool p)
+    {
+        return this.executors.get(p).getQueue().size();
+    }
+
+    /**
+     * @param p which pool
+     * @return number of threads currently running a task
+     */
+    public int getActiveCount(pool p)
+    {
+        return this.executors.get(p).getActiveCount();
+    }
+
+    /**
+     * @param p which pool
+     * @return average time in milliseconds a task has waited in the pool's queue before being run
+     */
+    public long getAverageWait(pool p)
+    {
+        return this.executors.get(p).averageWait();
+    }
+
+    /**
+     * @param p which pool
+     * @return average time in milliseconds a task has spent running
+     */
+    public long getAverageRun(pool p)
+    {
+        return this.executors.get(p).averageRun();
+    }
+
+    /**
+     * @param p which pool
+     * @return number of tasks dropped or refused because the pool was saturated
+     */
+    public long getRejectedCount(pool p)
+    {
+        return this.executors.get(p).rejected.sum();
+    }
+
+    /**
+     * @param p which pool
+     * @return number of tasks run by the submitting thread because the pool was saturated
+     */
+    public long getCallerRunsCount(pool p)
+    {
+        return this.executors.get(p).callerRuns.sum();
+    }
+
+    /**
+     * generates a short summary of every pool's state, used by the stats command
+     * @return multi-line string
+     */
+    public String getStatusString()
+    {
+        StringBuilder builder = new StringBuilder();
+        for(pool p : pool.values())
+        {
+            InstrumentedExecutor executor = this.executors.get(p);
+            builder.append(String.format("%13s: %d/%d active, %d queued, %d done, %d rejected, %d caller runs, %dms wait, %dms run\n",
+                    p.name(), executor.getActiveCount(), executor.getPoolSize(), executor.getQueue().size(),
+                    executor.getCompletedTaskCount(), executor.rejected.sum(), executor.callerRuns.sum(),
+                    executor.averageWait(), executor.averageRun()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * stops accepting new tasks on every pool and waits a short while for queued tasks to finish
+     */
+    public void shutdown()
+    {
+        for(InstrumentedExecutor executor : this.executors.values())
+        {
+            executor.shutdown();
+        }
+        for(InstrumentedExecutor executor : this.executors.values())
+        {
+            try
+            {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * thread pool which records how long tasks wait and run
+     */
+    private static class InstrumentedExecutor extends ThreadPoolExecutor
+    {
+        private final LongAdder rejected = new LongAdder();       // tasks which were not run
+        private final LongAdder callerRuns = new LongAdder();     // tasks run by the submitting thread
+        private final AtomicLong waitTotal = new AtomicLong();
+        private final AtomicLong runTotal = new AtomicLong();
+        private final AtomicLong timed = new AtomicLong();
+
+        InstrumentedExecutor(pool p)
+        {
+            super(p.threads, p.threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(p.queueSize), new NamedFactory(p));
+            this.allowCoreThreadTimeOut(true);
+            this.setRejectedExecutionHandler((task, executor) ->
+            {
+                switch(p.rejection)
+                {
+                    case CALLER_RUNS:
+                        if(executor.isShutdown())
+                        {
+                            this.rejected.increment();
+                        }
+                        else
+                        {
+                            this.callerRuns.increment();
+                            task.run();
+                        }
+                        break;
+                    case DISCARD:
+                        this.rejected.increment();
+                        break;
+                    case ABORT:
+                        this.rejected.increment();
+                        Logging.warn(this.getClass(), "The " + p.name() + " pool is saturated, rejected a task.");
+                        throw new RejectedExecutionException("The " + p.name() + " pool is saturated");
+                }
+            });
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            super.execute(new TimedTask(command));
+        }
+
+        long averageWait()
+        {
+            long count = this.timed.get();
+            return count==0 ? 0 : this.waitTotal.get()/count;
+        }
+
+        long averageRun()
+        {
+            long count = this.timed.get();
+            return count==0 ? 0 : this.runTotal.get()/count;
+        }
+
+        /**
+         * wraps a task to record the time it was queued
+         */
+        private class TimedTask implements Runnable
+        {
+            private final Runnable task;
+            private final long queued = System.currentTimeMillis();
+
+            TimedTask(Runnable task)
+            {
+                this.task = task;
+            }
+
+            @Override
+            public void run()
+            {
+                long start = System.currentTimeMillis();
+                try
+                {
+                    this.task.run();
+                }
+                finally
+                {
+                    waitTotal.addAndGet(start - this.queued);
+                    runTotal.addAndGet(System.currentTimeMillis() - start);
+                    timed.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * creates daemon threads named after their pool
+     */
+    private static class NamedFactory implements ThreadFactory
+    {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedFactory(pool p)
+        {
+            this.prefix = "saber-" + p.name().toLowerCase() + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, this.prefix + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -13,6 +13,8 @@ import net.dv8tion.jda.core.requests.SessionReconnectQueue;
 import net.dv8tion.jda.core.utils.MiscUtil;
 import okhttp3.ConnectionPool;
 import okhttp3.OkHttpClient;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.utils.HttpUtilities;
 import ws.nmathe.saber.utils.Logging;
@@ -23,12 +25,18 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.or;
+
 /**
  * The ShardManager manages the JDA objects used to interface with the Discord api
  */
 public class ShardManager
 {
     private Integer shardTotal = null;
+    private List<Integer> ownedShards;                           // IDs of the shards run by this process
     private ConcurrentMap<Integer, JDA> jdaShards = null;        // used only when sharded
     private JDA jda = null;                                      // used only when unsharded
 
@@ -38,10 +46,16 @@ public class ShardManager
     private Integer secondaryPoolSize = 6;   // used by all other shards
     private Integer queryTimeout = 5*60*1000;// time to wait for API queries (milliseconds)
 
-    private JDABuilder builder;
+    private static final long IDENTIFY_INTERVAL = 5*1000;   // time between logins of shards in the same identify bucket
+
+    // shared by every shard's builder
+    private OkHttpClient.Builder httpBuilder;
+    private WebSocketFactory webSocketFactory;
+    private SessionReconnectQueue reconnectQueue;
+    private EventListener listener = new EventListener();
 
     /**
-     * Populates the shard manager with initialized JDA shards (if sharding)
+     * Prepares the shard manager, no shards are started until start() is called
      * @param shards a list of integers, where each integer represents a shard ID
      *               The size of the list should never be greater than shardTotal
      * @param shardTotal the total number of shards to create
@@ -51,110 +65,102 @@ public class ShardManager
         // initialize the list of 'Now Playing' games
         this.loadGamesList();
         this.shardTotal = shardTotal;
+        this.ownedShards = Collections.unmodifiableList(new ArrayList<>(shards));
 
-        try // build the bot
+        // custom OkHttpClient builder
+        this.httpBuilder = new OkHttpClient.Builder();
+        this.httpBuilder.connectionPool(new ConnectionPool())
+                .connectTimeout(queryTimeout, TimeUnit.MILLISECONDS)
+                .readTimeout(queryTimeout, TimeUnit.MILLISECONDS)
+                .writeTimeout(queryTimeout, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true);
+
+        // custom web socket factory
+        this.webSocketFactory = new WebSocketFactory().setConnectionTimeout(queryTimeout);
+
+        if(shardTotal > 0)
         {
-            // custom OkHttpClient builder
-            OkHttpClient.Builder httpBuilder = new OkHttpClient.Builder();
-            httpBuilder.connectionPool(new ConnectionPool())
-                    .connectTimeout(queryTimeout, TimeUnit.MILLISECONDS)
-                    .readTimeout(queryTimeout, TimeUnit.MILLISECONDS)
-                    .writeTimeout(queryTimeout, TimeUnit.MILLISECONDS)
-                    .retryOnConnectionFailure(true);
-
-            // custom web socket factory
-            WebSocketFactory webSocketFactory = new WebSocketFactory().setConnectionTimeout(queryTimeout);
-
-            // basic skeleton of a jda shard
-            this.builder = new JDABuilder(AccountType.BOT)
-                    .setToken(Main.getBotSettingsManager().getToken())
-                    .setStatus(OnlineStatus.ONLINE)
-                    .addEventListener(new EventListener())
-                    .setHttpClientBuilder(httpBuilder)
-                    .setWebsocketFactory(webSocketFactory)
-                    .setAutoReconnect(true);
+            this.jdaShards = new ConcurrentHashMap<>();
+            this.reconnectQueue = new SessionReconnectQueue();
+        }
+    }
 
+    /**
+     * Logs in the shards run by this process
+     * The first shard is logged in before returning, the remaining shards are logged in on background threads.
+     * Shards are grouped into identify buckets (shard ID modulo the identify concurrency), the buckets log in
+     * in parallel while shards within a bucket log in one at a time.  Each shard's events and the command
+     * handler are initialized as soon as that shard is ready.
+     */
+    public void start()
+    {
+        try // build the bot
+        {
             // handle sharding
             if(shardTotal > 0)
             {
-                this.jdaShards = new ConcurrentHashMap<>();
-                Logging.info(this.getClass(), "Starting shard " + shards.get(0) + ". . .");
+                List<Integer> shards = new ArrayList<>(this.ownedShards);
+                if(shards.isEmpty()) return;
 
-                // add the reconnection queue
-                builder.setReconnectQueue(new SessionReconnectQueue());
-
-                // build the first shard synchronously with Main
+                // build the first shard synchronously with Main, shard 0 is preferred as it handles DMs
                 // to block the initialization process until one shard is active
-                if(shards.contains(0))
-                {
-                    // build shard id 0
-                    JDA jda = this.builder
-                            .setCorePoolSize(primaryPoolSize)
-                            .useSharding(0, shardTotal)
-                            .buildBlocking();
-
-                    this.jdaShards.put(0, jda);
-                    shards.remove((Object) 0);
-                }
-                else
+                Integer first = shards.contains(0) ? 0 : shards.get(0);
+                shards.remove(first);
+                Logging.info(this.getClass(), "Starting shard " + first + ". . .");
+                JDA jda = this.createBuilder(primaryPoolSize).useSharding(first, shardTotal).buildBlocking();
+                this.jdaShards.put(first, jda);
+                this.startGamesTimer();
+                this.initShard(jda);
+
+                // group the remaining shards by identify bucket
+                int concurrency = Main.getBotSettingsManager().getIdentifyConcurrency();
+                Map<Integer, List<Integer>> buckets = new TreeMap<>();
+                for(Integer shardId : shards)
                 {
-                    // build whatever the first shard id in the list is
-                    JDA jda = this.builder
-                            .setCorePoolSize(primaryPoolSize)
-                            .useSharding(shards.get(0), shardTotal)
-                            .buildBlocking();
-
-                    this.jdaShards.put(shards.get(0), jda);
-                    shards.remove(shards.get(0));
+                    buckets.computeIfAbsent(shardId % concurrency, key -> new ArrayList<>()).add(shardId);
                 }
+                if(buckets.isEmpty()) return;
 
-                // build remaining shards serially with one-another, but parallel with Main
-                ExecutorService executor = Executors.newSingleThreadExecutor();
-                executor.submit(() ->
+                // build the shards of each bucket serially with one-another, but parallel with other buckets and Main
+                ExecutorService executor = Executors.newFixedThreadPool(buckets.size());
+                for(List<Integer> bucket : buckets.values())
                 {
-                    try
+                    executor.submit(() ->
                     {
-                        for(Integer shardId : shards)
+                        for(Integer shardId : bucket)
                         {
-                            // sleep for 5 seconds before continuing
-                            try { Thread.sleep(5*1000); }
+                            // wait out the identify interval before continuing
+                            try { Thread.sleep(IDENTIFY_INTERVAL); }
                             catch (InterruptedException ignored) {}
 
-                            Logging.info(this.getClass(), "Starting shard " + shardId + ". . .");
-
-                            JDA shard = this.builder
-                                    .setCorePoolSize(secondaryPoolSize)
-                                    .useSharding(shardId, shardTotal)
-                                    .buildBlocking();
-
-                            this.jdaShards.put(shardId, shard);
+                            try
+                            {
+                                Logging.info(this.getClass(), "Starting shard " + shardId + ". . .");
+                                JDA shard = this.createBuilder(secondaryPoolSize)
+                                        .useSharding(shardId, shardTotal)
+                                        .buildBlocking();
+
+                                this.jdaShards.put(shardId, shard);
+                                this.initShard(shard);
+                            }
+                            catch(Exception e)
+                            {
+                                Logging.exception(this.getClass(), e);
+                            }
                         }
-                        this.startGamesTimer();
-
-                        Main.getEntryManager().init();
-                        Main.getCommandHandler().init();
-
-                        executor.shutdown();
-                    }
-                    catch(Exception e)
-                    {
-                        Logging.exception(this.getClass(), e);
-                    }
-                });
+                    });
+                }
+                executor.shutdown();
             }
             else // no sharding
             {
                 Logging.info(this.getClass(), "Starting bot without sharding. . .");
 
-                this.jda = this.builder
-                        .setCorePoolSize(primaryPoolSize)
-                        .buildBlocking();
+                this.jda = this.createBuilder(primaryPoolSize).buildBlocking();
 
                 this.jda.setAutoReconnect(true);
                 this.startGamesTimer();
-
-                Main.getEntryManager().init();
-                Main.getCommandHandler().init();
+                this.initShard(this.jda);
             }
         }
         catch( Exception e )
@@ -164,6 +170,46 @@ public class ShardManager
         }
     }
 
+    /**
+     * creates the skeleton of a jda shard
+     * A new builder is created for each shard so that shards may be built concurrently
+     * @param poolSize core pool size of the shard
+     * @return JDABuilder
+     */
+    private JDABuilder createBuilder(int poolSize)
+    {
+        JDABuilder builder = new JDABuilder(AccountType.BOT)
+                .setToken(Main.getBotSettingsManager().getToken())
+                .setStatus(OnlineStatus.ONLINE)
+                .addEventListener(this.listener)
+                .setHttpClientBuilder(this.httpBuilder)
+                .setWebsocketFactory(this.webSocketFactory)
+                .setAutoReconnect(true)
+                .setCorePoolSize(poolSize);
+
+        // add the reconnection queue
+        if(this.reconnectQueue != null)
+        {
+            builder.setReconnectQueue(this.reconnectQueue);
+        }
+        return builder;
+    }
+
+    /**
+     * prepares a shard which has finished logging in,
+     * it's event database documents are tagged with the shard, it's event timers are loaded,
+     * and the command handler and event processing are started if they are not already running
+     * @param shard the ready shard
+     */
+    private void initShard(JDA shard)
+    {
+        this.assignShard(shard);
+        Main.getEntryManager().init();
+        Main.getEntryManager().load(shard);
+        Main.getCommandHandler().init();
+        Logging.info(this.getClass(), "Shard " + this.getShardId(shard) + " is ready.");
+    }
+
     /**
      * Identifies if the bot is sharding enabled
      * @return bool
@@ -216,11 +262,68 @@ public class ShardManager
      */
     public JDA getShard(String guildId)
     {
+        return jdaShards.get(this.getShardId(guildId));
+    }
+
+
+    /**
+     * Determines which shard is responsible for a guild
+     * @param guildId ID of guild
+     * @return shard ID, 0 when sharding is disabled
+     */
+    public int getShardId(String guildId)
+    {
+        if(this.shardTotal == null || this.shardTotal <= 0) return 0;
         long id = MiscUtil.parseSnowflake(guildId);
-        long shardId = (id >> 22) % Main.getBotSettingsManager().getShardTotal();
-        return jdaShards.get((int) shardId);
+        return (int) ((id >> 22) % this.shardTotal);
     }
 
+    /**
+     * Creates a database filter matching the event and schedule documents of guilds on the shards run by
+     * this process, documents which have not yet been assigned a shard are also matched
+     * @return filter, which matches every document when sharding is disabled
+     */
+    public Bson getShardFilter()
+    {
+        if(this.shardTotal == null || this.shardTotal <= 0) return new Document();
+        return or(in("shardId", this.ownedShards), exists("shardId", false));
+    }
+
+    /**
+     * Creates a database filter matching the event and schedule documents of guilds on a single shard,
+     * documents which have not yet been assigned a shard are also matched
+     * @param shardId ID of the shard
+     * @return filter, which matches every document when sharding is disabled
+     */
+    public Bson getShardFilter(int shardId)
+    {
+        if(this.shardTotal == null || this.shardTotal <= 0) return new Document();
+        return or(eq("shardId", shardId), exists("shardId", false));
+    }
+
+    /**
+     * Records the shard ID on the event and schedule documents of each of a shard's guilds
+     * Documents created before shard IDs were recorded, or under a different shard total, are updated
+     * @param shard the connected shard
+     */
+    private void assignShard(JDA shard)
+    {
+        List<String> guildIds = new ArrayList<>();
+        for(Guild guild : shard.getGuilds())
+        {
+            guildIds.add(guild.getId());
+        }
+        Main.getDBDriver().assignShard(this.getShardId(shard), guildIds);
+    }
+
+    /**
+     * @param shard a JDA shard
+     * @return the shard's ID, 0 when sharding is disabled
+     */
+    public int getShardId(JDA shard)
+    {
+        return shard.getShardInfo()==null ? 0 : shard.getShardInfo().getShardId();
+    }
 
     /**
      * Retrieves all the JDA shards managed by this ShardManager
@@ -285,15 +388,8 @@ public class ShardManager
             }
 
             Logging.info(this.getClass(), "Starting shard-" + shardId + ". . .");
-            JDABuilder shardBuilder;
-            if(shardId == 0)
-            {
-                 shardBuilder = this.builder.setCorePoolSize(primaryPoolSize).useSharding(shardId, shardTotal);
-            }
-            else
-            {
-                shardBuilder = this.builder.setCorePoolSize(secondaryPoolSize).useSharding(shardId, shardTotal);
-            }
+            JDABuilder shardBuilder = this.createBuilder(shardId == 0 ? primaryPoolSize : secondaryPoolSize)
+                    .useSharding(shardId, shardTotal);
             this.jdaShards.put(shardId, shardBuilder.buildAsync());
         }
         catch(RateLimitedException e)
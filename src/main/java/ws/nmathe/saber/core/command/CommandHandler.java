@@ -5,6 +5,7 @@ import net.dv8tion.jda.core.entities.User;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.commands.Command;
 import ws.nmathe.saber.commands.admin.*;
+import ws.nmathe.saber.core.ExecutorManager;
 import ws.nmathe.saber.core.RateLimiter;
 import ws.nmathe.saber.utils.MessageUtilities;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
@@ -14,19 +15,22 @@ import ws.nmathe.saber.utils.Logging;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Handles MessageEvents which contain user commands
  */
 public class CommandHandler
 {
+    // reply sent when the command pool rejects a command
+    private static final String OVERLOADED_MSG = "I'm a bit overloaded at the moment, please try that command again shortly.";
+
     private final CommandParser commandParser = new CommandParser();      // parses command strings into containers
-    private final ExecutorService executor = Executors.newCachedThreadPool(); // thread pool for running commands
+    private final ExecutorService executor = Main.getExecutorManager().get(ExecutorManager.pool.COMMAND); // thread pool for running commands
     private final RateLimiter rateLimiter = new RateLimiter();
     private final HashMap<String, Command> commands;         // maps Command to invoke string
     private final HashMap<String, Command> adminCommands;    // ^^ but for admin commands
-    private boolean initialized;
+    private volatile boolean initialized;
 
     public CommandHandler()
     {
@@ -36,10 +40,12 @@ public class CommandHandler
     }
 
     /**
-     * Loads all commands into the command table
+     * Loads all commands into the command table, does nothing if the commands are already loaded
      */
-    public void init()
+    public synchronized void init()
     {
+        if(initialized) return;
+
         // add bot commands with their lookup name
         commands.put((new HelpCommand()).name(), new HelpCommand());
         commands.put((new InitCommand()).name(), new InitCommand());
@@ -174,6 +180,10 @@ public class CommandHandler
                     MessageUtilities.sendMsg( msg, cc.event.getChannel(), null );
                 }
             }
+            catch(RejectedExecutionException e)
+            {
+                MessageUtilities.sendMsg( OVERLOADED_MSG, cc.event.getChannel(), null );
+            }
             catch(Exception e)
             {
                 User admin = cc.event.getJDA().getUserById(Main.getBotSettingsManager().getAdminId());
@@ -221,6 +231,10 @@ public class CommandHandler
                     });
                 }
             }
+            catch(RejectedExecutionException e)
+            {
+                MessageUtilities.sendMsg( OVERLOADED_MSG, cc.event.getChannel(), null );
+            }
             catch(Exception e)
             {
                 User admin = cc.event.getJDA().getUserById(Main.getBotSettingsManager().getAdminId());
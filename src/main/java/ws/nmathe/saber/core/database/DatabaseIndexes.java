@@ -0,0 +1,154 @@
+package ws.nmathe.saber.core.database;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.*;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Indexes.ascending;
+import static com.mongodb.client.model.Updates.set;
+
+/**
+ * Declares the indexes used by the bot's database queries
+ * The index set is versioned, when INDEX_VERSION does not match the version recorded in the
+ * database the indexes are (re)created.  At startup the representative queries are explained
+ * and any which would still require a collection scan are reported.
+ */
+class DatabaseIndexes
+{
+    private static final int INDEX_VERSION = 3;   // increment whenever the declared index set changes
+
+    /**
+     * @return the declared indexes of each collection
+     */
+    private static Map<String, List<IndexModel>> declared()
+    {
+        Map<String, List<IndexModel>> indexes = new LinkedHashMap<>();
+        indexes.put("events", Arrays.asList(
+                new IndexModel(ascending("messageId")),              // reaction and message deletion lookups
+                new IndexModel(ascending("channelId", "start")),     // schedule listing and sorting
+                new IndexModel(ascending("channelId", "googleId")),  // calendar import
+                new IndexModel(ascending("guildId")),
+                new IndexModel(ascending("shardId")),                // per-process sweeps when sharded
+                new IndexModel(ascending("hasStarted", "start")),    // start transitions
+                new IndexModel(ascending("hasStarted", "end")),      // end transitions
+                new IndexModel(ascending("reminders")),
+                new IndexModel(ascending("end_reminders")),
+                new IndexModel(ascending("announcements")),
+                new IndexModel(ascending("expire"))));
+        indexes.put("schedules", Arrays.asList(
+                new IndexModel(ascending("guildId")),
+                new IndexModel(ascending("shardId")),
+                new IndexModel(ascending("sync_time")),
+                new IndexModel(ascending("sync_check"))));
+        indexes.put("guilds", Collections.emptyList());   // guilds are only looked up by _id
+        return indexes;
+    }
+
+    /**
+     * @return representative queries used by the bot, mapped by a description, as collection name and filter
+     */
+    private static Map<String, Map.Entry<String, Bson>> queries()
+    {
+        Date now = new Date();
+        Map<String, Map.Entry<String, Bson>> queries = new LinkedHashMap<>();
+        queries.put("events by message", entry("events", eq("messageId", "0")));
+        queries.put("events by channel", entry("events", eq("channelId", "0")));
+        queries.put("events by guild", entry("events", eq("guildId", "0")));
+        queries.put("events by shard", entry("events", or(in("shardId", Collections.singletonList(0)), exists("shardId", false))));
+        queries.put("events by google id", entry("events", and(eq("channelId", "0"), eq("googleId", "0"))));
+        queries.put("ending events", entry("events", and(eq("hasStarted", true), lte("end", now))));
+        queries.put("starting events", entry("events", and(eq("hasStarted", false), lte("start", now))));
+        queries.put("event reminders", entry("events", and(eq("hasStarted", false), lte("reminders", now))));
+        queries.put("event end reminders", entry("events", and(eq("hasStarted", true), lte("end_reminders", now))));
+        queries.put("event announcements", entry("events", lte("announcements", now)));
+        queries.put("expiring events", entry("events", lte("expire", now)));
+        queries.put("schedules by guild", entry("schedules", eq("guildId", "0")));
+        queries.put("schedules by shard", entry("schedules", or(in("shardId", Collections.singletonList(0)), exists("shardId", false))));
+        queries.put("schedules to sync", entry("schedules", and(ne("sync_address", "off"), or(lte("sync_time", now), lte("sync_check", now)))));
+        return queries;
+    }
+
+    /**
+     * creates the declared indexes if the recorded index version is out of date
+     * and reports queries which are not covered by an index
+     * @param db the bot's database
+     */
+    static void ensure(MongoDatabase db)
+    {
+        try
+        {
+            MongoCollection<Document> meta = db.getCollection("meta");
+            Document doc = meta.find(eq("_id", "indexes")).first();
+            Integer version = doc==null ? null : doc.getInteger("version");
+            if(version == null || version != INDEX_VERSION)
+            {
+                Logging.info(DatabaseIndexes.class, "Creating database indexes (version " + INDEX_VERSION + "). . .");
+                for(Map.Entry<String, List<IndexModel>> collection : declared().entrySet())
+                {
+                    if(collection.getValue().isEmpty()) continue;
+                    db.getCollection(collection.getKey()).createIndexes(collection.getValue());
+                }
+                meta.updateOne(eq("_id", "indexes"), set("version", INDEX_VERSION), new UpdateOptions().upsert(true));
+                Logging.info(DatabaseIndexes.class, "Finished creating database indexes.");
+            }
+        }
+        catch(Exception e)
+        {
+            Logging.exception(DatabaseIndexes.class, e);
+        }
+
+        report(db);
+    }
+
+    /**
+     * explains each representative query and logs those which would use a collection scan
+     * @param db the bot's database
+     */
+    private static void report(MongoDatabase db)
+    {
+        List<String> uncovered = new ArrayList<>();
+        for(Map.Entry<String, Map.Entry<String, Bson>> query : queries().entrySet())
+        {
+            try
+            {
+                Document command = new Document("explain",
+                        new Document("find", query.getValue().getKey())
+                                .append("filter", query.getValue().getValue()
+                                        .toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry())))
+                        .append("verbosity", "queryPlanner");
+
+                Document plan = (Document) ((Document) db.runCommand(command).get("queryPlanner")).get("winningPlan");
+                if(plan == null || plan.toJson().contains("COLLSCAN"))
+                {
+                    uncovered.add(query.getKey());
+                }
+            }
+            catch(Exception e)
+            {
+                Logging.warn(DatabaseIndexes.class, "Unable to explain query \"" + query.getKey() + "\": " + e.getMessage());
+            }
+        }
+
+        if(uncovered.isEmpty())
+        {
+            Logging.info(DatabaseIndexes.class, "All database queries are covered by an index.");
+        }
+        else
+        {
+            Logging.warn(DatabaseIndexes.class, "Database queries not covered by an index: " + String.join(", ", uncovered));
+        }
+    }
+
+    private static Map.Entry<String, Bson> entry(String collection, Bson filter)
+    {
+        return new AbstractMap.SimpleImmutableEntry<>(collection, filter);
+    }
+}
@@ -4,19 +4,36 @@ import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.WriteModel;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.*;
 
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Updates.set;
+
 public class Driver
 {
     private MongoDatabase db;
+    private EventWriter eventWriter = new EventWriter();
 
     public void init()
     {
         MongoClient mongoClient = new MongoClient(new MongoClientURI(Main.getBotSettingsManager().getMongoURI()));
         db = mongoClient.getDatabase("saberDB");
+        eventWriter.init();
+
+        // ensure the indexes required by the bot's queries exist
+        DatabaseIndexes.ensure(db);
 
         // schedule a thread to prune disconnected guild, schedules, and events from the database
         ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
@@ -37,4 +54,41 @@ public class Driver
     {
         return db.getCollection("guilds");
     }
+
+    public EventWriter getEventWriter()
+    {
+        return eventWriter;
+    }
+
+    /**
+     * Records a shard ID on the event and schedule documents of guilds, documents which already
+     * carry the shard ID are not modified
+     * @param shardId ID of the shard responsible for the guilds
+     * @param guildIds IDs of the guilds
+     */
+    public void assignShard(int shardId, Collection<String> guildIds)
+    {
+        if(guildIds.isEmpty()) return;
+
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for(String guildId : guildIds)
+        {
+            updates.add(new UpdateManyModel<>(and(eq("guildId", guildId), ne("shardId", shardId)), set("shardId", shardId)));
+        }
+
+        try
+        {
+            BulkWriteOptions options = new BulkWriteOptions().ordered(false);
+            long events = this.getEventCollection().bulkWrite(updates, options).getModifiedCount();
+            long schedules = this.getScheduleCollection().bulkWrite(updates, options).getModifiedCount();
+            if(events > 0 || schedules > 0)
+            {
+                Logging.info(this.getClass(), "Assigned shard " + shardId + " to " + events + " events and " + schedules + " schedules.");
+            }
+        }
+        catch(Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
 }
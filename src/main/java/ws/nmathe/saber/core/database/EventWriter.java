@@ -0,0 +1,166 @@
+package ws.nmathe.saber.core.database;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * Write-behind buffer for event document updates
+ * Field updates are coalesced per event ID and written to the events collection with a single
+ * bulkWrite every FLUSH_INTERVAL milliseconds, so a burst of event transitions at the top of the hour
+ * does not issue a separate database round trip for each event.
+ * Pending fields can be applied to documents read from the database to avoid reading stale values.
+ */
+public class EventWriter
+{
+    private static final long FLUSH_INTERVAL = 500;  // maximum time an update may remain unwritten (milliseconds)
+    private static final int MAX_PENDING = 1000;      // number of pending events which triggers an early flush
+    private static final int MAX_FAILURES = 120;      // consecutive failed flushes after which pending updates are dropped
+
+    private final Map<Integer, Document> pending = new ConcurrentHashMap<>();   // maps event ID to fields to $set
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+    private int failures = 0;                          // consecutive flushes which failed, guarded by flush()
+
+    /**
+     * starts the periodic flush
+     */
+    void init()
+    {
+        this.flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * queues fields to be set on an event document, fields set by an earlier unflushed
+     * update for the same event are overwritten
+     * @param entryId ID of the event
+     * @param fields field names mapped to their new values
+     */
+    public void set(Integer entryId, Document fields)
+    {
+        // pending documents are never modified once queued, a merged copy replaces them
+        this.pending.merge(entryId, new Document(fields), (current, update) ->
+        {
+            Document merged = new Document(current);
+            merged.putAll(update);
+            return merged;
+        });
+        if(this.pending.size() >= MAX_PENDING)
+        {
+            this.flusher.execute(this::flush);
+        }
+    }
+
+    /**
+     * queues a single field to be set on an event document
+     * @param entryId ID of the event
+     * @param field field name
+     * @param value new value
+     */
+    public void set(Integer entryId, String field, Object value)
+    {
+        this.set(entryId, new Document(field, value));
+    }
+
+    /**
+     * drops any unwritten updates for an event, used when the event is removed
+     * @param entryId ID of the event
+     */
+    public void discard(Integer entryId)
+    {
+        this.pending.remove(entryId);
+    }
+
+    /**
+     * applies any unwritten updates to an event document read from the database
+     * @param document event document, may be null
+     * @return the same document
+     */
+    public Document apply(Document document)
+    {
+        if(document == null) return null;
+        Document fields = this.pending.get(document.getInteger("_id"));
+        if(fields != null)
+        {
+            document.putAll(fields);
+        }
+        return document;
+    }
+
+    /**
+     * writes all pending updates to the database
+     * Updates remain pending (and are applied to documents read in the meantime) until the write is
+     * acknowledged.  Updates rejected by the database are dropped, if the write fails as a whole it is
+     * retried by the next flush until MAX_FAILURES consecutive flushes have failed.
+     */
+    public synchronized void flush()
+    {
+        // pending documents are never modified once queued, so the copied documents are what is written
+        Map<Integer, Document> written = new HashMap<>(this.pending);
+        if(written.isEmpty()) return;
+
+        List<Integer> ids = new ArrayList<>();
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for(Map.Entry<Integer, Document> entry : written.entrySet())
+        {
+            ids.add(entry.getKey());
+            updates.add(new UpdateOneModel<>(eq("_id", entry.getKey()), new Document("$set", entry.getValue())));
+        }
+
+        try
+        {
+            Main.getDBDriver().getEventCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+        catch(MongoBulkWriteException e)
+        {
+            // the write is unordered, only the updates with write errors were not applied
+            for(BulkWriteError error : e.getWriteErrors())
+            {
+                Logging.warn(this.getClass(), "Dropped the update of event " + ids.get(error.getIndex()) +
+                        ": " + error.getMessage());
+            }
+        }
+        catch(Exception e)
+        {
+            this.failures++;
+            if(this.failures == 1)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+            if(this.failures < MAX_FAILURES) return;
+            Logging.warn(this.getClass(), "Dropped the updates of " + written.size() + " events after " +
+                    this.failures + " failed writes");
+        }
+        this.failures = 0;
+
+        // updates queued after the copy was taken replaced the written documents, and remain pending
+        for(Map.Entry<Integer, Document> entry : written.entrySet())
+        {
+            this.pending.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * stops the periodic flush and writes all pending updates
+     */
+    public void shutdown()
+    {
+        this.flusher.shutdown();
+        this.flush();
+    }
+}
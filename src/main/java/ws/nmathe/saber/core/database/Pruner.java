@@ -7,6 +7,7 @@ import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.utils.Logging;
+import java.util.List;
 import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.and;
@@ -46,7 +47,11 @@ public class Pruner implements Runnable
                         {
                             Main.getDBDriver().getGuildCollection().deleteOne(eq("_id", guildId));
                             Main.getDBDriver().getEventCollection().deleteMany(eq("guildId", guildId));
+                            List<String> schedules = Main.getScheduleManager().getSchedulesForGuild(guildId);
                             Main.getDBDriver().getScheduleCollection().deleteMany(eq("guildId", guildId));
+                            schedules.forEach(Main.getScheduleManager()::invalidateSettings);
+                            Main.getScheduleManager().invalidateGuildSchedules(guildId);
+                            Main.getGuildSettingsManager().invalidateSettings(guildId);
                             Logging.info(this.getClass(), "Pruned guild with ID: " + guildId);
                         }
                     }
@@ -57,7 +62,7 @@ public class Pruner implements Runnable
                 });
 
         // purge schedule entries that the bot cannot connect to
-        query = new Document();
+        query = Main.getShardManager().getShardFilter();
         Main.getDBDriver().getScheduleCollection().find(query)
                 .projection(fields(include("_id", "guildId")))
                 .forEach((Consumer<? super Document>) document ->
@@ -78,6 +83,8 @@ public class Pruner implements Runnable
                         {
                             Main.getDBDriver().getEventCollection().deleteMany(eq("channeldId", chanId));
                             Main.getDBDriver().getScheduleCollection().deleteMany(eq("_id", chanId));
+                            Main.getScheduleManager().invalidateSettings(chanId);
+                            Main.getScheduleManager().invalidateGuildSchedules(guildId);
                             Logging.info(this.getClass(), "Pruned schedule with channel ID: " + chanId);
                         }
                     }
@@ -89,7 +96,7 @@ public class Pruner implements Runnable
 
 
         // purge events for which the bot cannot access the message
-        query = new Document();
+        query = Main.getShardManager().getShardFilter();
         Main.getDBDriver().getEventCollection().find(query)
                 .projection(fields(include("_id", "messageId", "channelId", "guildId")))
                 .forEach((Consumer<? super Document>) document ->
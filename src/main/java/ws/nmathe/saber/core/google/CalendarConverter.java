@@ -1,31 +1,48 @@
 package ws.nmathe.saber.core.google;
 
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.calendar.Calendar;
 import com.google.api.services.calendar.model.*;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.Permission;
-import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.TextChannel;
 import org.bson.Document;
-import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ExecutorManager;
 import ws.nmathe.saber.core.schedule.EntryManager;
 import ws.nmathe.saber.core.schedule.EventRecurrence;
 import ws.nmathe.saber.core.schedule.ScheduleEntry;
-import ws.nmathe.saber.utils.MessageUtilities;
 import ws.nmathe.saber.utils.ParsingUtilities;
 import ws.nmathe.saber.utils.Logging;
 import ws.nmathe.saber.utils.VerifyUtilities;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.set;
 
 /**
  * Reads the next 7 days of events on a google calendar and converts
@@ -35,6 +52,10 @@ import static com.mongodb.client.model.Filters.*;
  */
 public class CalendarConverter
 {
+    private static final int EXPORT_BATCH_SIZE = 50;        // calendar api limit on the requests in a batch
+    private static final int EXPORT_CONCURRENCY = 2;        // batches sent at once by an export
+    private static final int EXPORT_ATTEMPTS = 5;           // attempts at requests rejected by rate limits
+    private static final long EXPORT_BACKOFF = 1000;        // milliseconds, doubled after each rate limited attempt
 
     public void init()
     {
@@ -91,6 +112,9 @@ public class CalendarConverter
 
     /**
      * exports a discord schedule to a google calendar Calendar
+     * The calendar requests are sent in batches, a few batches at a time, and requests rejected by google's
+     * rate limits are retried with an increasing delay.  The IDs of newly created google events are stored
+     * with a single bulk write, the event messages are not edited.
      * @param address (String) valid address of calendar
      * @param channel (MessageChannel) channel to sync with
      * @param service connected calendar service with user credentials
@@ -104,9 +128,12 @@ public class CalendarConverter
             return false;
         }
 
-        Integer failure[] = { 0 };
+        ZoneId zone = Main.getScheduleManager().getTimeZone(channel.getId());
+        boolean sameCalendar = Main.getScheduleManager().getAddress(channel.getId()).equalsIgnoreCase(address);
+
+        List<ExportRequest> requests = new ArrayList<>();
         Collection<ScheduleEntry> entries = Main.getEntryManager().getEntriesFromChannel(channel.getId());
-        entries.forEach(se->
+        for(ScheduleEntry se : entries)
         {
             // compose the event's description
             String description = String.join("\n", se.getComments())+"\n";
@@ -120,7 +147,6 @@ public class CalendarConverter
             }
 
             // setup the event's start and end times
-            ZoneId zone = Main.getScheduleManager().getTimeZone(channel.getId());
             EventDateTime start = new EventDateTime()
                     .setDateTime(new DateTime(Date.from(se.getStart().toInstant())))
                     .setTimeZone(zone.getId());
@@ -140,34 +166,176 @@ public class CalendarConverter
                     .setEnd(end)
                     .setOriginalStartTime(origStart);
 
-            try // interface with google calendar api
+            // events previously synced with the calendar are updated, other events are inserted
+            String googleId = null;
+            if (se.getGoogleId() != null && sameCalendar)
+            {
+                googleId = se.getGoogleId();
+                event.setId(googleId);
+            }
+            requests.add(new ExportRequest(se.getId(), googleId, event));
+        }
+
+        Map<Integer, String> inserted = new ConcurrentHashMap<>();
+        boolean success = this.sendExportRequests(address, service, requests, inserted);
+
+        // record the google IDs of the inserted events
+        if(!inserted.isEmpty())
+        {
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            for(Map.Entry<Integer, String> entry : inserted.entrySet())
+            {
+                updates.add(new UpdateOneModel<>(eq("_id", entry.getKey()), set("googleId", entry.getValue())));
+            }
+            Main.getDBDriver().getEventCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+        return success;
+    }
+
+    /**
+     * sends export requests as calendar api batches with bounded concurrency,
+     * must not be called from the SYNC pool which runs the batches
+     * @param inserted receives the google IDs of inserted events, mapped by entry ID
+     * @return false if any request failed
+     */
+    boolean sendExportRequests(String address, Calendar service,
+                               List<ExportRequest> requests, Map<Integer, String> inserted)
+    {
+        ExecutorService executor = Main.getExecutorManager().get(ExecutorManager.pool.SYNC);
+        AtomicBoolean failure = new AtomicBoolean(false);
+        long backoff = EXPORT_BACKOFF;
+
+        List<ExportRequest> pending = requests;
+        for(int attempt=1; !pending.isEmpty(); attempt++)
+        {
+            Queue<ExportRequest> limited = new ConcurrentLinkedQueue<>();   // requests rejected by rate limits
+            List<List<ExportRequest>> batches = Lists.partition(pending, EXPORT_BATCH_SIZE);
+            for(int i=0; i<batches.size(); i+=EXPORT_CONCURRENCY)
             {
-                boolean differentCalendars = false;
-                if (Main.getScheduleManager().getAddress(channel.getId()).equalsIgnoreCase(address)) differentCalendars = true;
-                if (se.getGoogleId() != null && differentCalendars)
+                List<CompletableFuture<Void>> running = new ArrayList<>();
+                for(List<ExportRequest> batch : batches.subList(i, Math.min(i+EXPORT_CONCURRENCY, batches.size())))
                 {
-                    event.setId(se.getGoogleId());
-                    service.events().update(address, se.getGoogleId(), event).execute();
+                    running.add(CompletableFuture.runAsync(() ->
+                            this.sendExportBatch(address, service, batch, inserted, limited, failure), executor));
+                }
+                CompletableFuture.allOf(running.toArray(new CompletableFuture[running.size()])).join();
+            }
+
+            pending = new ArrayList<>(limited);
+            if(pending.isEmpty()) break;
+            if(attempt >= EXPORT_ATTEMPTS)
+            {
+                Logging.warn(this.getClass(), "Unable to export calendar: " + pending.size() + " requests remain rate limited");
+                return false;
+            }
+            try
+            {
+                Thread.sleep(backoff);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            backoff *= 2;
+        }
+        return !failure.get();
+    }
+
+    /**
+     * sends a single batch of export requests
+     * @param limited receives the requests which were rejected by rate limits
+     * @param failure set if any request failed for another reason
+     */
+    private void sendExportBatch(String address, Calendar service, List<ExportRequest> requests,
+                                 Map<Integer, String> inserted, Queue<ExportRequest> limited, AtomicBoolean failure)
+    {
+        try
+        {
+            BatchRequest batch = service.batch();
+            for(ExportRequest request : requests)
+            {
+                JsonBatchCallback<Event> callback = new JsonBatchCallback<Event>()
+                {
+                    @Override
+                    public void onSuccess(Event event, HttpHeaders headers)
+                    {
+                        if(request.googleId == null) inserted.put(request.entryId, event.getId());
+                    }
+
+                    @Override
+                    public void onFailure(GoogleJsonError error, HttpHeaders headers)
+                    {
+                        if(isRateLimited(error))
+                        {
+                            limited.add(request);
+                        }
+                        else
+                        {
+                            Logging.warn(CalendarConverter.class, "Unable to export calendar:" + error.getMessage());
+                            failure.set(true);
+                        }
+                    }
+                };
+
+                if(request.googleId != null)
+                {
+                    service.events().update(address, request.googleId, request.event).queue(batch, callback);
                 }
                 else
                 {
-                    Event e = service.events().insert(address, event).execute();
-                    Main.getEntryManager().updateEntry(se.setGoogleId(e.getId()), false);
+                    service.events().insert(address, request.event).queue(batch, callback);
                 }
             }
-            catch (Exception e)
+            batch.execute();
+        }
+        catch(Exception e)
+        {
+            Logging.warn(this.getClass(), "Unable to export calendar:" + e.getMessage());
+            failure.set(true);
+        }
+    }
+
+    /**
+     * @return true if google rejected a request because of a rate limit
+     */
+    private static boolean isRateLimited(GoogleJsonError error)
+    {
+        if(error.getCode() == 429) return true;
+        if(error.getCode() != 403 || error.getErrors() == null) return false;
+        for(GoogleJsonError.ErrorInfo info : error.getErrors())
+        {
+            if("rateLimitExceeded".equals(info.getReason()) || "userRateLimitExceeded".equals(info.getReason()))
             {
-                Logging.warn(this.getClass(), "Unable to export calendar:" +e.getMessage());
-                failure[0] = 1;
+                return true;
             }
-        });
-        return failure[0]==0;
+        }
+        return false;
+    }
+
+    /**
+     * an event to insert into or update on a calendar
+     */
+    static class ExportRequest
+    {
+        private final Integer entryId;
+        private final String googleId;      // the google event to update, null if the event is inserted
+        private final Event event;
+
+        ExportRequest(Integer entryId, String googleId, Event event)
+        {
+            this.entryId = entryId;
+            this.googleId = googleId;
+            this.event = event;
+        }
     }
 
 
     /**
-     * Purges a schedule from entries and adds events (after conversion)
-     * from the next 7 day span of a Google Calendar
+     * Synchronizes a schedule with the next sync length span of days of a Google Calendar
+     * If the schedule holds a sync token from an earlier sync of the same address, only the calendar events
+     * which have changed since that sync are requested.  Otherwise (or if google no longer accepts the token)
+     * the schedule is purged of entries and the events of the span are added (after conversion).
      * @param address (String) valid address of calendar
      * @param channel (MessageChannel) channel to sync with
      * @param service connected calendar service with user credentials
@@ -178,291 +346,610 @@ public class CalendarConverter
         if(channel == null || address == null) return;
         if(!Main.getScheduleManager().isASchedule(channel.getId())) return;
 
-        // query the google calendar address for the list of events
-        Events events;
+        boolean changed = false;
         try
         {
-            ZonedDateTime min = ZonedDateTime.now();
-            ZonedDateTime max = min.plusDays(Main.getScheduleManager().getSyncLength(channel.getId()));
-            events = service.events().list(address)
-                    .setTimeMin(new DateTime(min.format(EventRecurrence.RFC3339_FORMATTER)))
-                    .setTimeMax(new DateTime(max.format(EventRecurrence.RFC3339_FORMATTER)))
-                    .setOrderBy("startTime")
-                    .setSingleEvents(true)
-                    .setMaxResults(Main.getBotSettingsManager().getMaxEntries())
-                    .execute();
+            /* lock the schedule for syncing; schedule is unlocked in finally block */
+            Main.getScheduleManager().lock(channel.getId());
+
+            Document schedule = Main.getDBDriver().getScheduleCollection().find(eq("_id", channel.getId())).first();
+            String token = schedule.getString("sync_token");
+            Date horizon = schedule.getDate("sync_horizon");
+
+            boolean synced = false;
+            if(token != null && horizon != null && address.equals(schedule.getString("sync_address")))
+            {
+                try
+                {
+                    changed = this.incrementalSync(address, channel, service, schedule, token, horizon);
+                    synced = true;
+                }
+                catch(GoogleJsonResponseException e)
+                {
+                    if(e.getStatusCode() != 410) throw e;
+                    Logging.info(this.getClass(), "Sync token for schedule [" + channel.getId() +
+                            "] is no longer valid, performing a full sync.");
+                }
+            }
+            if(!synced)
+            {
+                changed = this.fullSync(address, channel, service, schedule);
+            }
         }
-        catch (Exception e)
+        catch(Exception e)
         {
             Logging.exception(this.getClass(), e);
-            return;
+        }
+        finally
+        {
+            Main.getScheduleManager().unlock(channel.getId()); // syncing done, unlock the channel
+        }
+
+        // auto-sort, unless the sync left the schedule as it was
+        if(changed) EntryManager.autoSort(true, channel.getId());
+    }
+
+    /**
+     * Purges a schedule of imported entries and adds events (after conversion) from the sync span of a calendar,
+     * then records a sync token for later incremental syncs
+     * @return true if any entry of the schedule was added, updated, or removed
+     */
+    private boolean fullSync(String address, TextChannel channel, Calendar service, Document schedule) throws IOException
+    {
+        channel.sendTyping().queue(); // send 'is typing' while the sync is in progress
+
+        // the token is requested first so that changes made during the sync are picked up by the next sync
+        String token = this.fetchSyncToken(address, service);
+
+        // query the google calendar address for the list of events
+        ZonedDateTime min = ZonedDateTime.now();
+        ZonedDateTime max = min.plusDays(Main.getScheduleManager().getSyncLength(channel.getId()));
+        Events events = service.events().list(address)
+                .setTimeMin(new DateTime(min.format(EventRecurrence.RFC3339_FORMATTER)))
+                .setTimeMax(new DateTime(max.format(EventRecurrence.RFC3339_FORMATTER)))
+                .setOrderBy("startTime")
+                .setSingleEvents(true)
+                .setMaxResults(Main.getBotSettingsManager().getMaxEntries())
+                .execute();
+
+        ZoneId zone = this.syncZone(events, schedule, channel.getId());
+
+        // a set of all unique (not child of a recurring event) events
+        HashSet<String> uniqueEvents = new HashSet<>();
+
+        // convert events
+        List<ImportedEvent> imports = new ArrayList<>();
+        for(Event event : events.getItems())
+        {
+            channel.sendTyping().queue();   // continue to send 'is typing'
+
+            // if the unique google event ID does not appear in the already processed events
+            // convert the event
+            String googleId = this.getSeriesId(event);
+            if(uniqueEvents.add(googleId))
+            {
+                imports.add(this.convert(event, googleId, address, service, zone));
+            }
+        }
+
+        // purge channel of all imported entries on schedule that aren't in uniqueEvents
+        List<Document> removals = new ArrayList<>();
+        Map<String, Document> existing = this.loadEntries(channel.getId(), removals);
+        for(Map.Entry<String, Document> entry : existing.entrySet())
+        {
+            if(!uniqueEvents.contains(entry.getKey())) removals.add(entry.getValue());
         }
 
-        try // convert the list of Google Events into discord event entries
+        boolean changed = this.applyImports(channel, imports, existing, removals);
+        Main.getScheduleManager().setSyncToken(channel.getId(), token, Date.from(max.toInstant()));
+
+        // set channel topic, if it does not already link the calendar
+        JDA jda = Main.getShardManager().getJDA(channel.getGuild().getId());
+        String calLink = "https://calendar.google.com/calendar/embed?src=" + address;
+        boolean hasPerms = channel.getGuild().getMember(jda.getSelfUser()).hasPermission(channel, Permission.MANAGE_CHANNEL);
+        if(hasPerms && !calLink.equals(channel.getTopic()))
         {
-            channel.sendTyping().queue(); // send 'is typing' while the sync is in progress
+            channel.getManagerUpdatable().getTopicField().setValue(calLink).update().queue();
+        }
+        return changed;
+    }
 
-            /* lock the schedule for syncing; schedule is unlocked in finally block */
-            Main.getScheduleManager().lock(channel.getId());
+    /**
+     * Applies the changes made to a calendar since the schedule's last sync, and adds the events
+     * which have entered the sync span since then
+     * @param token the sync token recorded by the last sync
+     * @param horizon end of the span covered by the last sync
+     * @return true if any entry of the schedule was added, updated, or removed
+     * @throws GoogleJsonResponseException with status code 410 if the token is no longer valid
+     */
+    private boolean incrementalSync(String address, TextChannel channel, Calendar service, Document schedule,
+                                 String token, Date horizon) throws IOException
+    {
+        String cId = channel.getId();
+        ZonedDateTime min = ZonedDateTime.now();
+        ZonedDateTime max = min.plusDays(Main.getScheduleManager().getSyncLength(cId));
+        int maxEntries = Main.getBotSettingsManager().getMaxEntries();
+
+        // collect the calendar events which were changed or deleted since the last sync
+        List<Event> changes = new ArrayList<>();
+        Events page;
+        String pageToken = null;
+        do
+        {
+            page = service.events().list(address)
+                    .setSyncToken(token)
+                    .setPageToken(pageToken)
+                    .execute();
+            if(page.getItems() != null) changes.addAll(page.getItems());
+            pageToken = page.getNextPageToken();
+        }
+        while(pageToken != null);
+
+        ZoneId zone = this.syncZone(page, schedule, cId);
+        if(!changes.isEmpty())
+        {
+            channel.sendTyping().queue(); // send 'is typing' while the changes are processed
+        }
 
-            // change the zone to match the calendar
-            // only if the zone has not been manually set for that schedule
-            ZoneId zone = ZoneId.of( events.getTimeZone() );
-            Boolean syncZone = Main.getDBDriver().getScheduleCollection().find(eq("_id", channel.getId()))
-                    .first().getBoolean("timezone_sync", false);
-            if(syncZone)
+        // the imported entries already on the schedule, duplicate entries are removed
+        List<Document> removals = new ArrayList<>();
+        Map<String, Document> existing = this.loadEntries(cId, removals);
+        int count = existing.size();
+
+        List<ImportedEvent> imports = new ArrayList<>();
+        Set<String> processed = new HashSet<>();
+        for(Event change : changes)
+        {
+            String googleId = this.getSeriesId(change);
+            if(!processed.add(googleId)) continue;
+
+            // find the occurrence of the event which belongs on the schedule, if any
+            Event event = null;
+            boolean cancelled = "cancelled".equals(change.getStatus());
+            if(change.getRecurringEventId() != null || (!cancelled && change.getRecurrence() != null))
+            {   // the first occurrence of the series within the sync span
+                event = this.firstInstance(address, googleId, service, min, max);
+            }
+            else if(!cancelled && this.parseTime(change.getStart(), zone).isBefore(max)
+                    && this.parseTime(change.getEnd(), zone).isAfter(min))
             {
-                Main.getScheduleManager().setTimeZone( channel.getId(), zone );
+                event = change;
             }
 
-            // a set of all unique (not child of a recurring event) events
-            HashSet<String> uniqueEvents = new HashSet<>();
+            if(event == null)
+            {   // the event was deleted or has moved out of the sync span
+                Document document = existing.remove(googleId);
+                if(document != null)
+                {
+                    removals.add(document);
+                    count--;
+                }
+            }
+            else if(existing.containsKey(googleId) || count < maxEntries)
+            {
+                imports.add(this.convert(event, googleId, address, service, zone));
+                if(!existing.containsKey(googleId)) count++;
+            }
+        }
+
+        // events which have entered the sync span since the last sync
+        if(max.toInstant().isAfter(horizon.toInstant()) && count < maxEntries)
+        {
+            Events events = service.events().list(address)
+                    .setTimeMin(new DateTime(horizon))
+                    .setTimeMax(new DateTime(max.format(EventRecurrence.RFC3339_FORMATTER)))
+                    .setOrderBy("startTime")
+                    .setSingleEvents(true)
+                    .setMaxResults(maxEntries)
+                    .execute();
 
-            // process events
             for(Event event : events.getItems())
             {
-                channel.sendTyping().queue();   // continue to send 'is typing'
+                String googleId = this.getSeriesId(event);
+                if(existing.containsKey(googleId) || !processed.add(googleId)) continue;
+                if(count >= maxEntries) break;
 
-                // if the unique google event ID does not appear in the already processed events
-                // convert the event and add it to the schedule
-                String recurrenceId = event.getRecurringEventId();
-                String googleId = recurrenceId==null ? event.getId() : recurrenceId;
-                if(!uniqueEvents.contains(googleId))
-                {
-                    // declare and initialize event parameters
-                    ZonedDateTime start, end;
-                    String title;
-                    ArrayList<String> comments      = new ArrayList<>();
-                    int repeat                      = 0;
-                    ZonedDateTime expire            = null;
-                    String imageUrl                 = null;
-                    String thumbnailUrl             = null;
-                    ZonedDateTime rsvpDeadline      = null;
-                    String titleUrl                 = null;
-                    Map<String, Integer> rsvpLimits = new HashMap<>();
-
-
-                    if(event.getStart().getDateTime() == null)
-                    {   /* parse start and end dates for all day events */
-                        start = ZonedDateTime.of(
-                                LocalDate.parse(event.getStart().getDate().toStringRfc3339()),
-                                LocalTime.MIN,
-                                zone);
-                        end = ZonedDateTime.of(
-                                LocalDate.parse(event.getEnd().getDate().toStringRfc3339()),
-                                LocalTime.MIN,
-                                zone);
-                    } else
-                    {   /* parse start and end times for normal events */
-                        start = ZonedDateTime.parse(event.getStart().getDateTime().toStringRfc3339(), EventRecurrence.RFC3339_FORMATTER)
-                                .withZoneSameInstant(zone);
-                        end = ZonedDateTime.parse(event.getEnd().getDateTime().toStringRfc3339(), EventRecurrence.RFC3339_FORMATTER)
-                                .withZoneSameInstant(zone);
-                    }
+                imports.add(this.convert(event, googleId, address, service, zone));
+                count++;
+            }
+        }
 
-                    // get event title
-                    if(event.getSummary() == null) title = "(No title)";
-                    else title = event.getSummary();
+        boolean changed = this.applyImports(channel, imports, existing, removals);
 
-                    // process event description into event comments or other settings
-                    if (event.getDescription() != null)
-                    {
-                        // process the description line by line
-                        String description = HTMLStripper.cleanDescription(event.getDescription().replace("\n", "<br>"));
-                        for (String comment : description.split("\n"))
-                        {
-                            comment = comment.trim();
-                            String lowerCase = comment.toLowerCase();
+        Main.getScheduleManager().setSyncToken(cId, page.getNextSyncToken(), Date.from(max.toInstant()));
+        return changed;
+    }
 
-                            // image
-                            if (lowerCase.startsWith("image:"))
-                            {
-                                String[] tmp = comment.split(":",2); // split to limit:
-                                if(tmp.length > 1)
-                                {
-                                    imageUrl = tmp[1].trim();
-                                    if (!VerifyUtilities.verifyUrl(imageUrl)) imageUrl = null;
-                                }
-                            }
-                            // thumbnail
-                            else if (lowerCase.startsWith("thumbnail:"))
-                            {
-                                String[] tmp = comment.split(":",2);
-                                if(tmp.length > 1)
-                                {
-                                    thumbnailUrl = tmp[1].trim();
-                                    if(!VerifyUtilities.verifyUrl(thumbnailUrl)) thumbnailUrl = null;
-                                }
-                            }
-                            // limit
-                            else if (lowerCase.startsWith("limit:"))
-                            {
-                                String[] tmp = comment.split(":",2); // split to limit:
-                                if(tmp.length > 1)
-                                {
-                                    String[] str = tmp[1].trim().split("[^\\S\n\r]+"); // split into white space separated segments
-                                    if(str.length >= 2)
-                                    {
-                                        // rebuild the rsvp group name
-                                        StringBuilder name = new StringBuilder();
-                                        for(int i=0; i<str.length-1; i++)
-                                        {
-                                            name.append(str[i]);
-                                            if(i != str.length-2) name.append(" ");
-                                        }
-
-                                        // parse the limit
-                                        Integer limit = -1;
-                                        if(VerifyUtilities.verifyInteger(str[str.length-1]))
-                                            limit = Integer.parseInt(str[str.length-1]);
-
-                                        rsvpLimits.put(name.toString(), limit);
-                                    }
-                                }
+    /**
+     * requests a sync token for a calendar without retrieving the calendar's events
+     */
+    private String fetchSyncToken(String address, Calendar service) throws IOException
+    {
+        Events page;
+        String pageToken = null;
+        do
+        {
+            page = service.events().list(address)
+                    .setPageToken(pageToken)
+                    .setMaxResults(2500)
+                    .setFields("nextPageToken,nextSyncToken")
+                    .execute();
+            pageToken = page.getNextPageToken();
+        }
+        while(pageToken != null);
+        return page.getNextSyncToken();
+    }
 
-                            }
-                            // title url
-                            else if (lowerCase.startsWith("url:"))
-                            {
-                                String[] tmp = comment.split(":",2);
-                                if(tmp.length > 1 && VerifyUtilities.verifyUrl(tmp[1]))
-                                    titleUrl = tmp[1];
-                            }
-                            // deadline
-                            else if (lowerCase.startsWith("deadline:"))
-                            {
-                                String tmp = lowerCase.replace("deadline:","").trim();
-                                if(VerifyUtilities.verifyDate(tmp))
-                                    rsvpDeadline = ParsingUtilities.parseDate(tmp, zone);
-                            }
-                            // plaintext comment
-                            else if(!comment.trim().isEmpty())
-                            {
-                                comments.add(comment);
-                            }
-                        }
-                    }
+    /**
+     * finds the first occurrence of a recurring event within a span of time
+     * @return the occurrence, or null if the series has no occurrence in the span or no longer exists
+     */
+    private Event firstInstance(String address, String seriesId, Calendar service,
+                                ZonedDateTime min, ZonedDateTime max) throws IOException
+    {
+        try
+        {
+            List<Event> instances = service.events().instances(address, seriesId)
+                    .setTimeMin(new DateTime(min.format(EventRecurrence.RFC3339_FORMATTER)))
+                    .setTimeMax(new DateTime(max.format(EventRecurrence.RFC3339_FORMATTER)))
+                    .setMaxResults(1)
+                    .execute().getItems();
+            return (instances == null || instances.isEmpty()) ? null : instances.get(0);
+        }
+        catch(GoogleJsonResponseException e)
+        {
+            // a deleted series responds with 410 (which must not be mistaken for an invalid sync token) or 404
+            if(e.getStatusCode() == 404 || e.getStatusCode() == 410) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * change the schedule's zone to match the calendar,
+     * only if the zone has not been manually set for that schedule
+     * @return the calendar's zone
+     */
+    private ZoneId syncZone(Events events, Document schedule, String cId)
+    {
+        ZoneId zone = ZoneId.of( events.getTimeZone() );
+        if(schedule.getBoolean("timezone_sync", false) && !zone.equals(Main.getScheduleManager().getTimeZone(cId)))
+        {
+            Main.getScheduleManager().setTimeZone( cId, zone );
+        }
+        return zone;
+    }
+
+    /**
+     * @return the google ID a schedule entry is created under (the ID of the series for recurring events)
+     */
+    private String getSeriesId(Event event)
+    {
+        String recurrenceId = event.getRecurringEventId();
+        return recurrenceId==null ? event.getId() : recurrenceId;
+    }
 
-                    // get the event recurrence information
-                    List<String> recurrence = event.getRecurrence();
-                    if(recurrenceId != null)
-                        recurrence = service.events().get(address, recurrenceId).execute().getRecurrence();
+    /**
+     * parses the start or end of a calendar event, all day events begin and end at midnight
+     */
+    private ZonedDateTime parseTime(EventDateTime time, ZoneId zone)
+    {
+        if(time.getDateTime() == null)
+        {
+            return ZonedDateTime.of(LocalDate.parse(time.getDate().toStringRfc3339()), LocalTime.MIN, zone);
+        }
+        return ZonedDateTime.parse(time.getDateTime().toStringRfc3339(), EventRecurrence.RFC3339_FORMATTER)
+                .withZoneSameInstant(zone);
+    }
 
-                    // parse the event recurrence information
-                    if(recurrence != null)
+    /**
+     * loads the imported entries of a schedule with a single query, holding only the fields needed to diff the
+     * schedule against the calendar, entries without a google ID were not imported and are left alone by syncs
+     * @param duplicates receives the entries which duplicate another entry's google ID
+     * @return the entries mapped by google ID
+     */
+    private Map<String, Document> loadEntries(String channelId, List<Document> duplicates)
+    {
+        Map<String, Document> entries = new HashMap<>();
+        Main.getDBDriver().getEventCollection().find(and(eq("channelId", channelId), ne("googleId", null)))
+                .projection(fields(include("_id", "googleId", "messageId", "import_hash")))
+                .forEach((Consumer<? super Document>) document ->
+                {
+                    if(entries.putIfAbsent(document.getString("googleId"), document) != null)
                     {
-                        // determine the start date
-                        ZonedDateTime dtStart = event.getOriginalStartTime()==null ? start :
-                                ZonedDateTime.parse(event.getOriginalStartTime()
-                                        .getDateTime().toStringRfc3339(), EventRecurrence.RFC3339_FORMATTER)
-                                .withZoneSameInstant(zone);
-                        EventRecurrence eventRecurrence = new EventRecurrence(recurrence, dtStart);
-                        expire = eventRecurrence.getExpire();
-                        repeat = eventRecurrence.getRepeat();
+                        duplicates.add(document);
                     }
+                });
+        return entries;
+    }
+
+    /**
+     * applies the differences between the converted calendar events and the schedule's entries
+     * Entries to update are loaded with a single query, and entries to remove are deleted with a single query.
+     * The resulting message sends, edits, and deletions are queued with the channel's other requests.
+     * @param imports the converted calendar events
+     * @param existing the schedule's entries mapped by google ID
+     * @param removals the entries to remove from the schedule
+     * @return true if any entry was added, updated, or removed
+     */
+    private boolean applyImports(TextChannel channel, List<ImportedEvent> imports,
+                              Map<String, Document> existing, List<Document> removals)
+    {
+        // entries whose calendar event has changed since it was last imported, and new events
+        Map<Integer, ImportedEvent> updates = new HashMap<>();
+        List<ImportedEvent> creates = new ArrayList<>();
+        for(ImportedEvent imported : imports)
+        {
+            Document document = existing.get(imported.googleId);
+            if(document == null)
+            {
+                creates.add(imported);
+            }
+            else if(!imported.hash.equals(document.getString("import_hash")))
+            {
+                updates.put(document.getInteger("_id"), imported);
+            }
+        }
+
+        Main.getEntryManager().removeEntries(channel, removals);
+
+        // should the event be flagged as already started?
+        ZonedDateTime now = ZonedDateTime.now();
+        for(ScheduleEntry entry : Main.getEntryManager().getEntries(updates.keySet()).values())
+        {   /* update an existing event */
+            ImportedEvent imported = updates.get(entry.getId());
+            ScheduleEntry se = entry
+                    .setTitle(imported.title)
+                    .setStart(imported.start)
+                    .setEnd(imported.end)
+                    .setRepeat(imported.repeat)
+                    .setGoogleId(imported.googleId)
+                    .setExpire(imported.expire)
+                    .setStarted(imported.start.isBefore(now))
+                    .setComments(imported.comments)
+                    .setLocation(imported.location)
+                    .setImportHash(imported.hash);
+
+            // set special attributes if not null
+            if (imported.titleUrl!=null)
+                se.setTitleUrl(imported.titleUrl);
+            if (imported.imageUrl!=null)
+                se.setImageUrl(imported.imageUrl);
+            if (imported.thumbnailUrl!=null)
+                se.setThumbnailUrl(imported.thumbnailUrl);
+            if (imported.rsvpDeadline!=null)
+                se.setRsvpDeadline(imported.rsvpDeadline);
+            if (imported.rsvpLimits.keySet().size()>0)
+                se.setRsvpLimits(imported.rsvpLimits);
+
+            // update event reminders using schedule default settings
+            se.reloadReminders(Main.getScheduleManager().getReminders(se.getChannelId()))
+                    .reloadEndReminders(Main.getScheduleManager().getEndReminders(se.getChannelId()))
+                    .regenerateAnnouncementOverrides();
+
+            Main.getEntryManager().updateEntry(se, false);
+        }
+
+        for(ImportedEvent imported : creates)
+        {   /* create a new event */
+            ScheduleEntry se = (new ScheduleEntry(channel, imported.title, imported.start, imported.end))
+                    .setTitleUrl(imported.titleUrl!=null ? imported.titleUrl:imported.htmlLink)
+                    .setRepeat(imported.repeat)
+                    .setGoogleId(imported.googleId)
+                    .setExpire(imported.expire)
+                    .setStarted(imported.start.isBefore(now))
+                    .setComments(imported.comments)
+                    .setLocation(imported.location)
+                    .setImportHash(imported.hash);
+
+            // set special attributes if not null
+            if (imported.imageUrl!=null)
+                se.setImageUrl(imported.imageUrl);
+            if (imported.thumbnailUrl!=null)
+                se.setThumbnailUrl(imported.thumbnailUrl);
+            if (imported.rsvpDeadline!=null)
+                se.setRsvpDeadline(imported.rsvpDeadline);
+            if (imported.rsvpLimits.keySet().size()>0)
+                se.setRsvpLimits(imported.rsvpLimits);
+
+            Main.getEntryManager().newEntry(se, false);
+        }
+        return !(creates.isEmpty() && updates.isEmpty() && removals.isEmpty());
+    }
+
+    /**
+     * converts a calendar event into the content of a schedule entry
+     * @param event the event, or an occurrence of the recurring event
+     * @param googleId the google ID the entry is created under
+     * @param zone the calendar's zone
+     * @return the converted event
+     */
+    private ImportedEvent convert(Event event, String googleId, String address, Calendar service, ZoneId zone) throws IOException
+    {
+        // declare and initialize event parameters
+        ZonedDateTime start, end;
+        String title;
+        ArrayList<String> comments      = new ArrayList<>();
+        int repeat                      = 0;
+        ZonedDateTime expire            = null;
+        String imageUrl                 = null;
+        String thumbnailUrl             = null;
+        ZonedDateTime rsvpDeadline      = null;
+        String titleUrl                 = null;
+        Map<String, Integer> rsvpLimits = new HashMap<>();
+
+        // parse start and end times
+        start = this.parseTime(event.getStart(), zone);
+        end = this.parseTime(event.getEnd(), zone);
+
+        // get event title
+        if(event.getSummary() == null) title = "(No title)";
+        else title = event.getSummary();
+
+        // process event description into event comments or other settings
+        if (event.getDescription() != null)
+        {
+            // process the description line by line
+            String description = HTMLStripper.cleanDescription(event.getDescription().replace("\n", "<br>"));
+            for (String comment : description.split("\n"))
+            {
+                comment = comment.trim();
+                String lowerCase = comment.toLowerCase();
 
-                    // if the google event already exists as a saber event on the schedule, update it
-                    // otherwise add as a new saber event
-                    Document doc = Main.getDBDriver().getEventCollection()
-                            .find(and(
-                                    eq("channelId", channel.getId()),
-                                    eq("googleId", googleId))).first();
-
-                    // should the event be flagged as already started?
-                    boolean hasStarted = start.isBefore(ZonedDateTime.now());
-
-                    if(doc != null && (new ScheduleEntry(doc)).getMessageObject() != null)
-                    {   /* update an existing event */
-                        ScheduleEntry se = (new ScheduleEntry(doc))
-                                .setTitle(title)
-                                .setStart(start)
-                                .setEnd(end)
-                                .setRepeat(repeat)
-                                .setGoogleId(googleId)
-                                .setExpire(expire)
-                                .setStarted(hasStarted)
-                                .setComments(comments)
-                                .setLocation(event.getLocation());
-
-                        // set special attributes if not null
-                        if (titleUrl!=null)
-                            se.setTitleUrl(titleUrl);
-                        if (imageUrl!=null)
-                            se.setImageUrl(imageUrl);
-                        if (thumbnailUrl!=null)
-                            se.setThumbnailUrl(thumbnailUrl);
-                        if (rsvpDeadline!=null)
-                            se.setRsvpDeadline(rsvpDeadline);
-                        if (rsvpLimits.keySet().size()>0)
-                            se.setRsvpLimits(rsvpLimits);
-
-                        // update event reminders using schedule default settings
-                        se.reloadReminders(Main.getScheduleManager().getReminders(se.getChannelId()))
-                                .reloadEndReminders(Main.getScheduleManager().getEndReminders(se.getChannelId()))
-                                .regenerateAnnouncementOverrides();
-
-                        Main.getEntryManager().updateEntry(se, false);
+                // image
+                if (lowerCase.startsWith("image:"))
+                {
+                    String[] tmp = comment.split(":",2); // split to limit:
+                    if(tmp.length > 1)
+                    {
+                        imageUrl = tmp[1].trim();
+                        if (!VerifyUtilities.verifyUrl(imageUrl)) imageUrl = null;
+                    }
+                }
+                // thumbnail
+                else if (lowerCase.startsWith("thumbnail:"))
+                {
+                    String[] tmp = comment.split(":",2);
+                    if(tmp.length > 1)
+                    {
+                        thumbnailUrl = tmp[1].trim();
+                        if(!VerifyUtilities.verifyUrl(thumbnailUrl)) thumbnailUrl = null;
                     }
-                    else
-                    {   /* create a new event */
-                        ScheduleEntry se = (new ScheduleEntry(channel, title, start, end))
-                                .setTitleUrl(titleUrl!=null ? titleUrl:event.getHtmlLink())
-                                .setRepeat(repeat)
-                                .setGoogleId(googleId)
-                                .setExpire(expire)
-                                .setStarted(hasStarted)
-                                .setComments(comments)
-                                .setLocation(event.getLocation());
-
-                        // set special attributes if not null
-                        if (imageUrl!=null)
-                            se.setImageUrl(imageUrl);
-                        if (thumbnailUrl!=null)
-                            se.setThumbnailUrl(thumbnailUrl);
-                        if (rsvpDeadline!=null)
-                            se.setRsvpDeadline(rsvpDeadline);
-                        if (rsvpLimits.keySet().size()>0)
-                            se.setRsvpLimits(rsvpLimits);
-
-                        Main.getEntryManager().newEntry(se, false);
+                }
+                // limit
+                else if (lowerCase.startsWith("limit:"))
+                {
+                    String[] tmp = comment.split(":",2); // split to limit:
+                    if(tmp.length > 1)
+                    {
+                        String[] str = tmp[1].trim().split("[^\\S\n\r]+"); // split into white space separated segments
+                        if(str.length >= 2)
+                        {
+                            // rebuild the rsvp group name
+                            StringBuilder name = new StringBuilder();
+                            for(int i=0; i<str.length-1; i++)
+                            {
+                                name.append(str[i]);
+                                if(i != str.length-2) name.append(" ");
+                            }
+
+                            // parse the limit
+                            Integer limit = -1;
+                            if(VerifyUtilities.verifyInteger(str[str.length-1]))
+                                limit = Integer.parseInt(str[str.length-1]);
+
+                            rsvpLimits.put(name.toString(), limit);
+                        }
                     }
 
-                    // add to google ID to unique event mapping
-                    uniqueEvents.add(recurrenceId==null ? event.getId() : recurrenceId);
+                }
+                // title url
+                else if (lowerCase.startsWith("url:"))
+                {
+                    String[] tmp = comment.split(":",2);
+                    if(tmp.length > 1 && VerifyUtilities.verifyUrl(tmp[1]))
+                        titleUrl = tmp[1];
+                }
+                // deadline
+                else if (lowerCase.startsWith("deadline:"))
+                {
+                    String tmp = lowerCase.replace("deadline:","").trim();
+                    if(VerifyUtilities.verifyDate(tmp))
+                        rsvpDeadline = ParsingUtilities.parseDate(tmp, zone);
+                }
+                // plaintext comment
+                else if(!comment.trim().isEmpty())
+                {
+                    comments.add(comment);
                 }
             }
+        }
 
-            // purge channel of all entries on schedule that aren't in uniqueEvents
-            Bson query = and(   eq("channelId", channel.getId()),
-                                nin("googleId", uniqueEvents));
+        // get the event recurrence information
+        String recurrenceId = event.getRecurringEventId();
+        List<String> recurrence = event.getRecurrence();
+        if(recurrenceId != null)
+            recurrence = service.events().get(address, recurrenceId).execute().getRecurrence();
 
-            Main.getDBDriver().getEventCollection().find(query)
-                    .forEach((Consumer<? super Document>) document ->
-                    {
-                        ScheduleEntry entry = Main.getEntryManager().getEntry((Integer) document.get("_id"));
-                        Message msg = entry.getMessageObject();
-                        if( msg==null ) return;
+        // parse the event recurrence information
+        if(recurrence != null)
+        {
+            // determine the start date
+            ZonedDateTime dtStart = event.getOriginalStartTime()==null ? start :
+                    ZonedDateTime.parse(event.getOriginalStartTime()
+                            .getDateTime().toStringRfc3339(), EventRecurrence.RFC3339_FORMATTER)
+                    .withZoneSameInstant(zone);
+            EventRecurrence eventRecurrence = new EventRecurrence(recurrence, dtStart);
+            expire = eventRecurrence.getExpire();
+            repeat = eventRecurrence.getRepeat();
+        }
 
-                        Main.getEntryManager().removeEntry((Integer) document.get("_id"));
-                        MessageUtilities.deleteMsg(msg, null);
-                    });
+        return new ImportedEvent(googleId, title, start, end, repeat, expire, comments, event.getLocation(),
+                event.getHtmlLink(), titleUrl, imageUrl, thumbnailUrl, rsvpDeadline, rsvpLimits);
+    }
 
-            // set channel topic
-            JDA jda = Main.getShardManager().getJDA(channel.getGuild().getId());
-            String calLink = "https://calendar.google.com/calendar/embed?src=" + address;
-            boolean hasPerms = channel.getGuild().getMember(jda.getSelfUser()).hasPermission(channel, Permission.MANAGE_CHANNEL);
-            if(hasPerms) channel.getManagerUpdatable().getTopicField().setValue(calLink).update().queue();
-        }
-        catch(Exception e)
+    /**
+     * the content of a schedule entry converted from a calendar event
+     */
+    private static class ImportedEvent
+    {
+        private final String googleId;
+        private final String title;
+        private final ZonedDateTime start;
+        private final ZonedDateTime end;
+        private final int repeat;
+        private final ZonedDateTime expire;
+        private final ArrayList<String> comments;
+        private final String location;
+        private final String htmlLink;
+        private final String titleUrl;
+        private final String imageUrl;
+        private final String thumbnailUrl;
+        private final ZonedDateTime rsvpDeadline;
+        private final Map<String, Integer> rsvpLimits;
+        private final String hash;
+
+        ImportedEvent(String googleId, String title, ZonedDateTime start, ZonedDateTime end, int repeat,
+                      ZonedDateTime expire, ArrayList<String> comments, String location, String htmlLink,
+                      String titleUrl, String imageUrl, String thumbnailUrl, ZonedDateTime rsvpDeadline,
+                      Map<String, Integer> rsvpLimits)
         {
-            Logging.exception(this.getClass(), e);
+            this.googleId = googleId;
+            this.title = title;
+            this.start = start;
+            this.end = end;
+            this.repeat = repeat;
+            this.expire = expire;
+            this.comments = comments;
+            this.location = location;
+            this.htmlLink = htmlLink;
+            this.titleUrl = titleUrl;
+            this.imageUrl = imageUrl;
+            this.thumbnailUrl = thumbnailUrl;
+            this.rsvpDeadline = rsvpDeadline;
+            this.rsvpLimits = rsvpLimits;
+            this.hash = this.computeHash();
         }
-        finally
+
+        /**
+         * Computes a hash of the imported content in a canonical form
+         * The hash is stored with the event's entry and used to recognize events which have not changed since their last import
+         * @return hex string of the content hash
+         */
+        private String computeHash()
         {
-            Main.getScheduleManager().unlock(channel.getId()); // syncing done, unlock the channel
+            List<Object> fields = new ArrayList<>(Arrays.asList(this.googleId, this.title,
+                    this.start.toInstant(), this.end.toInstant(), this.repeat,
+                    this.expire==null ? null : this.expire.toInstant(), this.location, this.titleUrl,
+                    this.imageUrl, this.thumbnailUrl, this.rsvpDeadline==null ? null : this.rsvpDeadline.toInstant()));
+            fields.addAll(this.comments);
+            fields.add(new TreeMap<>(this.rsvpLimits));  // sorted so that the order of the limits does not change the hash
+
+            StringBuilder content = new StringBuilder();
+            for(Object field : fields)
+            {
+                content.append(field).append('\0');
+            }
+            return Hashing.murmur3_128().hashString(content, StandardCharsets.UTF_8).toString();
         }
-
-        // auto-sort
-        EntryManager.autoSort(true, channel.getId());
     }
 }
@@ -11,16 +11,25 @@ import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.json.JsonFactory;
 
 import com.google.api.client.util.store.FileDataStoreFactory;
+import com.google.api.services.calendar.Calendar;
 import com.google.api.services.calendar.CalendarScopes;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.utils.Logging;
 
 import java.io.*;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * authentication with google api services
+ * Loaded credentials and the calendar services built from them are kept in memory, so that syncing
+ * many schedules of the same user does not reload the credential store or rebuild the client.
+ * All clients share the one HTTP transport (and it's pooled connections).
  */
 public class GoogleAuth
 {
@@ -47,6 +56,37 @@ public class GoogleAuth
      */
     private static final List<String> SCOPES = Arrays.asList(CalendarScopes.CALENDAR);
 
+    /** Remaining lifetime (in seconds) of an access token below which a cached credential is refreshed. */
+    private static final long REFRESH_MARGIN = 5*60;
+
+    /** Authorization flow built from the client secrets, built on first use. */
+    private static GoogleAuthorizationCodeFlow flow;
+
+    /** Redirect URI of the client secrets. */
+    private static String redirectUri;
+
+    /** Service account credentials, loaded on first use. */
+    private static Credential serviceCredential;
+
+    /** Loaded user credentials, mapped by discord user ID. */
+    private static final Cache<String, Credential> credentials = CacheBuilder.newBuilder()
+            .expireAfterAccess(6, TimeUnit.HOURS)
+            .build();
+
+    /** Calendar services, mapped by the identity of the credential they were built with. */
+    private static final LoadingCache<Credential, Calendar> services = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<Credential, Calendar>()
+            {
+                @Override
+                public Calendar load(Credential credential)
+                {
+                    return new Calendar.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
+                            .setApplicationName(APPLICATION_NAME)
+                            .build();
+                }
+            });
+
     static
     {
         try
@@ -69,11 +109,18 @@ public class GoogleAuth
      */
     public static Credential authorize() throws IOException
     {
-        // Load service account key
-        InputStream in = new FileInputStream(Main.getBotSettingsManager().getGoogleServiceKey());
+        synchronized(GoogleAuth.class)
+        {
+            if(serviceCredential == null)
+            {
+                // Load service account key
+                InputStream in = new FileInputStream(Main.getBotSettingsManager().getGoogleServiceKey());
 
-        // build credentials
-        return GoogleCredential.fromStream(in).createScoped(SCOPES);
+                // build credentials
+                serviceCredential = GoogleCredential.fromStream(in).createScoped(SCOPES);
+            }
+        }
+        return refreshIfExpiring(serviceCredential);
     }
 
 
@@ -86,23 +133,18 @@ public class GoogleAuth
      */
     public static Credential authorize(String token, String userId) throws IOException
     {
-        // Load client secrets.
-        InputStream in = new FileInputStream(Main.getBotSettingsManager().getGoogleOAuthSecret());
-        GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
-
-        // Build flow and trigger user authorization request.
-        GoogleAuthorizationCodeFlow flow = (new GoogleAuthorizationCodeFlow.Builder(HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, SCOPES))
-                .setDataStoreFactory(DATA_STORE_FACTORY)
-                .setAccessType("offline")
-                .build();
+        GoogleAuthorizationCodeFlow flow = getFlow();
 
         // remove any account previously associated with the token
         flow.getCredentialDataStore().delete(userId);
+        credentials.invalidate(userId);
 
         // create the new credential
         GoogleTokenResponse response = flow.newTokenRequest(token)
-                .setRedirectUri(clientSecrets.getDetails().getRedirectUris().get(0)).execute();
-        return flow.createAndStoreCredential(response, userId);
+                .setRedirectUri(redirectUri).execute();
+        Credential credential = flow.createAndStoreCredential(response, userId);
+        credentials.put(userId, credential);
+        return credential;
     }
 
 
@@ -113,24 +155,21 @@ public class GoogleAuth
      */
     public static Credential authorize(String userId)
     {
-        // get the file stream
-        InputStream in;
         try
-        { in = new FileInputStream(Main.getBotSettingsManager().getGoogleOAuthSecret()); }
+        {
+            Credential credential = credentials.getIfPresent(userId);
+            if(credential == null)
+            {
+                // users without credentials are not cached, the credential store is held in memory by the flow
+                credential = getFlow().loadCredential(userId);
+                if(credential == null) return null;
+                credentials.put(userId, credential);
+            }
+            return refreshIfExpiring(credential);
+        }
         catch (FileNotFoundException e)
-        { return null; }
-
-        try
         {
-            // Load client secrets.
-            GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
-
-            // Build flow and trigger user authorization request.
-            GoogleAuthorizationCodeFlow flow = (new GoogleAuthorizationCodeFlow.Builder(HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, SCOPES))
-                    .setDataStoreFactory(DATA_STORE_FACTORY)
-                    .setAccessType("offline")
-                    .build();
-            return flow.loadCredential(userId);
+            return null;
         }
         catch (IOException e)
         {
@@ -147,21 +186,12 @@ public class GoogleAuth
      */
     public static String newAuthorizationUrl() throws IOException
     {
-        // Load client secrets.
-        InputStream in = new FileInputStream(Main.getBotSettingsManager().getGoogleOAuthSecret());
-        GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
-
-        // Build flow and trigger user authorization request.
-        GoogleAuthorizationCodeFlow flow = (new GoogleAuthorizationCodeFlow.Builder(HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, SCOPES))
-                .setDataStoreFactory(DATA_STORE_FACTORY)
-                .setAccessType("offline")
-                .build();
-
+        GoogleAuthorizationCodeFlow flow = getFlow();
         return flow.newAuthorizationUrl()
                 .setScopes(SCOPES)
                 .setAccessType("offline")
-                .setClientId(clientSecrets.getDetails().getClientId())
-                .setRedirectUri(clientSecrets.getDetails().getRedirectUris().get(0))
+                .setClientId(flow.getClientId())
+                .setRedirectUri(redirectUri)
                 .toString();
     }
 
@@ -173,17 +203,8 @@ public class GoogleAuth
      */
     public static void unauthorize(String userID) throws IOException
     {
-        // Load client secrets.
-        InputStream in = new FileInputStream(Main.getBotSettingsManager().getGoogleOAuthSecret());
-        GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
-
-        // Build flow and trigger user authorization request.
-        GoogleAuthorizationCodeFlow flow = (new GoogleAuthorizationCodeFlow.Builder(HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, SCOPES))
-                .setDataStoreFactory(DATA_STORE_FACTORY)
-                .setAccessType("offline")
-                .build();
-
-        flow.getCredentialDataStore().delete(userID);
+        getFlow().getCredentialDataStore().delete(userID);
+        credentials.invalidate(userID);
     }
 
 
@@ -212,15 +233,60 @@ public class GoogleAuth
 
 
     /**
-     * Build and return an authorized Calendar client service.
+     * Return an authorized Calendar client service, the service is built once per credential
      * @return an authorized Calendar client service
-     * @throws IOException
      */
-    public static com.google.api.services.calendar.Calendar getCalendarService(Credential credential)
+    public static Calendar getCalendarService(Credential credential)
+    {
+        return services.getUnchecked(credential);
+    }
+
+
+    /**
+     * Builds the authorization flow from the client secrets on first use
+     * @return the authorization flow
+     * @throws IOException if the client secrets cannot be read
+     */
+    private static synchronized GoogleAuthorizationCodeFlow getFlow() throws IOException
     {
-        return new com.google.api.services.calendar.Calendar
-                .Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
-                .setApplicationName(APPLICATION_NAME)
-                .build();
+        if(flow == null)
+        {
+            // Load client secrets.
+            InputStream in = new FileInputStream(Main.getBotSettingsManager().getGoogleOAuthSecret());
+            GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
+            redirectUri = clientSecrets.getDetails().getRedirectUris().get(0);
+
+            // Build flow and trigger user authorization request.
+            flow = (new GoogleAuthorizationCodeFlow.Builder(HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, SCOPES))
+                    .setDataStoreFactory(DATA_STORE_FACTORY)
+                    .setAccessType("offline")
+                    .build();
+        }
+        return flow;
+    }
+
+
+    /**
+     * Refreshes a credential's access token if it expires within the refresh margin,
+     * so that a sync does not begin with a token about to expire
+     * @param credential the credential
+     * @return the credential
+     */
+    private static Credential refreshIfExpiring(Credential credential)
+    {
+        Long expiresIn = credential.getExpiresInSeconds();
+        if(expiresIn != null && expiresIn < REFRESH_MARGIN)
+        {
+            try
+            {
+                credential.refreshToken();
+            }
+            catch (IOException e)
+            {
+                // the client will attempt the refresh again when the token is used
+                Logging.warn(GoogleAuth.class, "Unable to refresh credential: " + e.getMessage());
+            }
+        }
+        return credential;
     }
 }
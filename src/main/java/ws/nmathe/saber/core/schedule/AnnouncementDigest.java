@@ -0,0 +1,110 @@
+package ws.nmathe.saber.core.schedule;
+
+import net.dv8tion.jda.core.entities.TextChannel;
+import ws.nmathe.saber.utils.MessageUtilities;
+import ws.nmathe.saber.utils.RequestQueue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the announcements, reminders, and end messages of schedules which have digest mode enabled
+ * A digest is opened by the EntryProcessor for each pass over the due events, messages bound for the same
+ * channel during the pass are combined and sent as few messages as possible when the digest is closed.
+ */
+final class AnnouncementDigest
+{
+    private static final int MAX_LENGTH = 2000;     // discord message length limit
+
+    // the digest open on the thread processing due events, if any
+    private static final ThreadLocal<AnnouncementDigest> current = new ThreadLocal<>();
+
+    private final Map<String, Batch> batches = new LinkedHashMap<>();
+
+    private AnnouncementDigest()
+    {}
+
+    /**
+     * opens a digest on the current thread
+     * @return the digest, which must be closed to send the collected messages
+     */
+    static AnnouncementDigest open()
+    {
+        AnnouncementDigest digest = new AnnouncementDigest();
+        current.set(digest);
+        return digest;
+    }
+
+    /**
+     * adds a message to the digest open on the current thread
+     * @param channel the channel the message is bound for
+     * @param content the message
+     * @param priority priority the message would have been sent with
+     * @return false if no digest is open and the message should be sent directly
+     */
+    static boolean collect(TextChannel channel, String content, RequestQueue.priority priority)
+    {
+        AnnouncementDigest digest = current.get();
+        if(digest == null) return false;
+        if(content.isEmpty()) return true;
+
+        Batch batch = digest.batches.computeIfAbsent(channel.getId(), key -> new Batch(channel));
+        batch.contents.add(content);
+        if(priority.compareTo(batch.priority) < 0) batch.priority = priority;
+        return true;
+    }
+
+    /**
+     * sends the collected messages and detaches the digest from the current thread
+     */
+    void close()
+    {
+        current.remove();
+        for(Batch batch : this.batches.values())
+        {
+            for(String message : combine(batch.contents))
+            {
+                MessageUtilities.sendMsg(message, batch.channel, batch.priority, null);
+            }
+        }
+        this.batches.clear();
+    }
+
+    /**
+     * joins messages by line, starting a new message whenever the length limit would be exceeded
+     */
+    private static List<String> combine(List<String> contents)
+    {
+        List<String> messages = new ArrayList<>();
+        StringBuilder builder = new StringBuilder();
+        for(String content : contents)
+        {
+            if(builder.length() > 0 && builder.length() + 1 + content.length() > MAX_LENGTH)
+            {
+                messages.add(builder.toString());
+                builder.setLength(0);
+            }
+            if(builder.length() > 0) builder.append("\n");
+            builder.append(content);
+        }
+        if(builder.length() > 0) messages.add(builder.toString());
+        return messages;
+    }
+
+    /**
+     * the messages collected for one channel
+     */
+    private static class Batch
+    {
+        private final TextChannel channel;
+        private final List<String> contents = new ArrayList<>();
+        private RequestQueue.priority priority = RequestQueue.priority.PRUNE;
+
+        Batch(TextChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+}
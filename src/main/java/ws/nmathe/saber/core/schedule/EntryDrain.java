@@ -0,0 +1,259 @@
+package ws.nmathe.saber.core.schedule;
+
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ExecutorManager;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes the events queued by the EntryProcessor
+ * Queued events are held per guild, guilds with waiting events take turns on a bounded number of workers
+ * so that a guild with a large number of simultaneous events cannot hold back the events of other guilds.
+ * A guild is processed by at most one worker at a time, and it's events are processed in queue order
+ * (ending events, then starting events, then reminders, then announcements).  Work is never cancelled,
+ * a guild which has not finished its turn within SLOW_TURN is logged.
+ */
+class EntryDrain
+{
+    private static final int WORKERS = 8;                   // must not exceed the EVENT pool's thread limit
+    private static final int TURN_SIZE = 25;                // events processed per guild before moving to the next guild
+    private static final long SLOW_TURN = 20*1000;          // milliseconds
+
+    private final ExecutorService executor = Main.getExecutorManager().get(ExecutorManager.pool.EVENT);
+    private final Map<String, GuildQueue> guilds = new ConcurrentHashMap<>();
+    private final Queue<GuildQueue> ready = new ConcurrentLinkedQueue<>();    // guilds waiting for a turn
+    private final AtomicInteger workers = new AtomicInteger();
+
+    /**
+     * adds an event to it's guild's queue if it is not already queued
+     * @param queueIdentifier which queue to add the event to
+     * @param guildId ID of the guild the event belongs to
+     * @param entryId ID of the event
+     */
+    void add(EntryProcessor.queue queueIdentifier, String guildId, Integer entryId)
+    {
+        GuildQueue guild = this.guilds.computeIfAbsent(guildId, GuildQueue::new);
+        if(guild.add(queueIdentifier, entryId))
+        {
+            this.ready.add(guild);
+        }
+    }
+
+    /**
+     * starts workers for waiting guilds, up to the worker limit
+     */
+    void drain()
+    {
+        while(!this.ready.isEmpty())
+        {
+            int count = this.workers.get();
+            if(count >= WORKERS) return;
+            if(!this.workers.compareAndSet(count, count+1)) continue;
+            try
+            {
+                this.executor.execute(this::work);
+            }
+            catch(RejectedExecutionException e)
+            {
+                // the pool is saturated, waiting guilds are picked up by the next drain
+                this.workers.decrementAndGet();
+                Logging.warn(this.getClass(), "Unable to start an event worker: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * gives waiting guilds their turn until no guild is waiting
+     */
+    private void work()
+    {
+        try
+        {
+            GuildQueue guild;
+            while((guild = this.ready.poll()) != null)
+            {
+                long start = System.currentTimeMillis();
+                boolean success = this.turn(guild);
+                long elapsed = System.currentTimeMillis() - start;
+                if(elapsed > SLOW_TURN)
+                {
+                    Logging.warn(this.getClass(), "Processing events for guild " + guild.guildId + " took " + elapsed + "ms");
+                }
+                if(guild.finishTurn())
+                {
+                    this.ready.add(guild);
+                }
+                // the events could not be loaded, leave the retry to the next pass
+                if(!success) return;
+            }
+        }
+        finally
+        {
+            this.workers.decrementAndGet();
+        }
+    }
+
+    /**
+     * processes up to TURN_SIZE of a guild's events
+     * messages sent by schedules in digest mode are combined for the turn
+     * @return false if the events could not be loaded and were returned to the guild's queue
+     */
+    private boolean turn(GuildQueue guild)
+    {
+        List<Item> items = guild.take(TURN_SIZE);
+
+        // load the turn's events at once, an event appearing more than once is reloaded after it's first use
+        Set<Integer> ids = new HashSet<>();
+        for(Item item : items) ids.add(item.entryId);
+        Map<Integer, ScheduleEntry> entries;
+        try
+        {
+            entries = Main.getEntryManager().getEntries(ids);
+        }
+        catch(Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+            guild.restore(items);
+            return false;
+        }
+
+        AnnouncementDigest digest = AnnouncementDigest.open();
+        try
+        {
+            Set<Integer> processed = new HashSet<>();
+            for(Item item : items)
+            {
+                try
+                {
+                    ScheduleEntry se = processed.add(item.entryId) ?
+                            entries.get(item.entryId) : Main.getEntryManager().getEntry(item.entryId);
+                    if(!EntryProcessor.isDue(se, item.queue)) continue;
+                    switch(item.queue)
+                    {
+                        case END_QUEUE:
+                            se.end();
+                            break;
+                        case START_QUEUE:
+                            se.start();
+                            break;
+                        case REMIND_QUEUE:
+                            se.remind();
+                            break;
+                        case ANNOUNCEMENT_QUEUE:
+                            se.announce();
+                            break;
+                    }
+                }
+                catch(Exception e)
+                {
+                    Logging.exception(this.getClass(), e);
+                }
+            }
+        }
+        finally
+        {
+            digest.close();
+        }
+        return true;
+    }
+
+    /**
+     * a queued event
+     */
+    private static class Item
+    {
+        private final EntryProcessor.queue queue;
+        private final Integer entryId;
+
+        Item(EntryProcessor.queue queue, Integer entryId)
+        {
+            this.queue = queue;
+            this.entryId = entryId;
+        }
+    }
+
+    /**
+     * the queued events of a single guild
+     */
+    private static class GuildQueue
+    {
+        private final String guildId;
+        private final Map<EntryProcessor.queue, LinkedHashSet<Integer>> queues = new EnumMap<>(EntryProcessor.queue.class);
+        private boolean waiting = false;    // if the guild is waiting for, or taking, a turn
+
+        GuildQueue(String guildId)
+        {
+            this.guildId = guildId;
+            this.queues.put(EntryProcessor.queue.END_QUEUE, new LinkedHashSet<>());
+            this.queues.put(EntryProcessor.queue.START_QUEUE, new LinkedHashSet<>());
+            this.queues.put(EntryProcessor.queue.REMIND_QUEUE, new LinkedHashSet<>());
+            this.queues.put(EntryProcessor.queue.ANNOUNCEMENT_QUEUE, new LinkedHashSet<>());
+        }
+
+        /**
+         * @return true if the guild must be added to the ready queue
+         */
+        synchronized boolean add(EntryProcessor.queue queueIdentifier, Integer entryId)
+        {
+            this.queues.get(queueIdentifier).add(entryId);
+            if(this.waiting) return false;
+            this.waiting = true;
+            return true;
+        }
+
+        /**
+         * removes up to limit events, in queue order
+         */
+        synchronized List<Item> take(int limit)
+        {
+            List<Item> items = new ArrayList<>();
+            for(Map.Entry<EntryProcessor.queue, LinkedHashSet<Integer>> entry : this.queues.entrySet())
+            {
+                Iterator<Integer> iterator = entry.getValue().iterator();
+                while(iterator.hasNext() && items.size() < limit)
+                {
+                    items.add(new Item(entry.getKey(), iterator.next()));
+                    iterator.remove();
+                }
+            }
+            return items;
+        }
+
+        /**
+         * returns events which were taken but could not be processed
+         */
+        synchronized void restore(List<Item> items)
+        {
+            for(Item item : items)
+            {
+                this.queues.get(item.queue).add(item.entryId);
+            }
+        }
+
+        /**
+         * @return true if the guild has more events and must be added back to the ready queue
+         */
+        synchronized boolean finishTurn()
+        {
+            this.waiting = this.size() > 0;
+            return this.waiting;
+        }
+
+        synchronized int size()
+        {
+            int size = 0;
+            for(Set<Integer> queue : this.queues.values())
+            {
+                size += queue.size();
+            }
+            return size;
+        }
+    }
+}
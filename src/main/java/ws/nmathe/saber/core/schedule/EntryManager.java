@@ -1,22 +1,32 @@
 package ws.nmathe.saber.core.schedule;
 
 import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.result.UpdateResult;
 import com.vdurmont.emoji.EmojiManager;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Emote;
 import net.dv8tion.jda.core.entities.TextChannel;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.utils.Logging;
 import ws.nmathe.saber.utils.MessageUtilities;
+import ws.nmathe.saber.utils.RequestQueue;
 import net.dv8tion.jda.core.entities.Message;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Updates.*;
 
 
 /**
@@ -28,7 +38,20 @@ import static com.mongodb.client.model.Filters.*;
 public class EntryManager
 {
     private Random generator;
-    public enum type { FILL, EMPTY, UPDATE1, UPDATE2, UPDATE3 }
+    private EntryScheduler scheduler = new EntryScheduler();  // in-memory index of upcoming event transitions
+
+    // events with a pending display refresh, used to coalesce refreshes caused by rsvp reactions
+    private static final long REFRESH_DELAY = 2*1000; // milliseconds
+    private final Set<Integer> pendingRefresh = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // display edits which were sent, and which were skipped as the message already showed the same content
+    private final LongAdder editsSent = new LongAdder();
+    private final LongAdder editsSuppressed = new LongAdder();
+
+    private static final int RSVP_RETRIES = 5;   // attempts to rewrite an rsvp map changed concurrently
+    private boolean initialized = false;
+    public enum type { FILL, EMPTY, EXPIRE }
 
     /** construct EntryManager and seed random from OS random source */
     public EntryManager()
@@ -39,35 +62,41 @@ public class EntryManager
     /**
      * creates the scheduledExecutor thread pool and starts schedule timers which
      * check for expired entry timers and adjust the message display timer
+     * Called as each shard becomes ready, the timers are only started once
      */
-    public void init()
+    public synchronized void init()
     {
+        if(this.initialized) return;
+        this.initialized = true;
+
         /* thread to fill announcement queues and thread to empty announcement queues,
          share the same scheduler to avoid collisions */
         ScheduledExecutorService announcementScheduler = Executors.newSingleThreadScheduledExecutor();
-        // fill
+        // fill (recovers any transitions missed by the in-memory scheduler)
         announcementScheduler.scheduleWithFixedDelay(
                 new EntryProcessor(type.FILL),
-                30, 30, TimeUnit.SECONDS);
-        // empty
+                5*60, 5*60, TimeUnit.SECONDS);
+        // empty (queues transitions from the in-memory scheduler as they come due)
         announcementScheduler.scheduleWithFixedDelay(
                 new EntryProcessor(type.EMPTY),
-                15, 20, TimeUnit.SECONDS);
-
-        // scheduler for threads to adjust entry display timers
-        ScheduledExecutorService updateDisplayScheduler = Executors.newSingleThreadScheduledExecutor();
-        // 1 day timer
-        updateDisplayScheduler.scheduleWithFixedDelay(
-                new EntryProcessor(type.UPDATE3),
-                12*60*60, 12*60*60, TimeUnit.SECONDS);
-        // 1 hour timer
-        updateDisplayScheduler.scheduleWithFixedDelay(
-                new EntryProcessor(type.UPDATE2),
+                1, 1, TimeUnit.SECONDS);
+
+        // display timers are refreshed by the in-memory scheduler when their text changes,
+        // only the removal of expiring events is periodic
+        ScheduledExecutorService expireScheduler = Executors.newSingleThreadScheduledExecutor();
+        expireScheduler.scheduleWithFixedDelay(
+                new EntryProcessor(type.EXPIRE),
                 60*30, 60*30, TimeUnit.SECONDS);
-        // 4.5 min timer
-        updateDisplayScheduler.scheduleWithFixedDelay(
-                new EntryProcessor(type.UPDATE1),
-                60*4+30, 60*3, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Loads the timers of the events belonging to a shard's guilds,
+     * called once the shard has logged in
+     * @param shard the JDA shard
+     */
+    public void load(JDA shard)
+    {
+        this.scheduler.load(Main.getShardManager().getShardId(shard));
     }
 
     /**
@@ -142,6 +171,7 @@ public class EntryManager
                                 .append("messageId", msg.getId())
                                 .append("channelId", se.getChannelId())
                                 .append("googleId", se.getGoogleId())
+                                .append("import_hash", se.getImportHash())
                                 .append("rsvp_members", se.getRsvpMembers())
                                 .append("rsvp_limits", se.getRsvpLimits())
                                 .append("image", se.getImageUrl())
@@ -154,9 +184,12 @@ public class EntryManager
                                 .append("expire", finalExpire)
                                 .append("deadline", finalDeadline)
                                 .append("guildId", se.getGuildId())
-                                .append("location", se.getLocation());
+                                .append("shardId", Main.getShardManager().getShardId(se.getGuildId()))
+                                .append("location", se.getLocation())
+                                .append("display_hash", MessageGenerator.fingerprint(message));
 
                 Main.getDBDriver().getEventCollection().insertOne(entryDocument);
+                scheduler.schedule(se);
 
                 // auto-sort
                 autoSort(sort, channelId);
@@ -174,13 +207,11 @@ public class EntryManager
      * Update an entry with a new configuration
      * All schedule entry parameters should be filled.
      * The ID of the ScheduleEntry must not have been changed.
+     * Only the fields the ScheduleEntry has marked as modified are written to the database.
      * @param se (ScheduleEntry) the new schedule entry object
      */
     public void updateEntry(ScheduleEntry se, boolean sort)
     {
-        Message origMessage = se.getMessageObject();
-        if(origMessage == null) return;
-
         // process expiration date
         Date expire = null;
         if (se.getExpire() != null)
@@ -198,15 +229,16 @@ public class EntryManager
         // generate event display message
         Message message = MessageGenerator.generate(se);
 
-        // update message display
+        // update message display, the message is edited by it's ID without being fetched
+        // updates follow a change to the event, so they are sent ahead of the periodic display refreshes
         Date finalExpire = expire;
         Date finalDeadline = deadline;
-        MessageUtilities.editMsg(message, origMessage, msg ->
+        se.editMessage(message, RequestQueue.priority.COMMAND).thenAccept(msg ->
         {
             try
             {
-                String guildId = msg.getGuild().getId();
-                String channelId = msg.getChannel().getId();
+                String guildId = se.getGuildId();
+                String channelId = se.getChannelId();
 
                 // replace whole document
                 Document entryDocument =
@@ -220,9 +252,10 @@ public class EntryManager
                                 .append("end_reminders", se.getEndReminders())
                                 .append("url", se.getTitleUrl())
                                 .append("hasStarted", se.hasStarted())
-                                .append("messageId", msg.getId())
+                                .append("messageId", se.getMessageId())
                                 .append("channelId", channelId)
                                 .append("googleId", se.getGoogleId())
+                                .append("import_hash", se.getImportHash())
                                 .append("rsvp_members", se.getRsvpMembers())
                                 .append("rsvp_limits", se.getRsvpLimits())
                                 .append("start_disabled", se.isQuietStart())
@@ -242,7 +275,33 @@ public class EntryManager
                                 .append("announcement_targets", se.getAnnouncementTargets())
                                 .append("location", se.getLocation());
 
-                Main.getDBDriver().getEventCollection().replaceOne(eq("_id", se.getId()), entryDocument);
+                // only the modified fields are written, through the buffered writer
+                Set<String> dirty = se.getDirtyFields();
+                Document fields = new Document();
+                for(String key : dirty)
+                {
+                    if(!key.equals("rsvp_members")) fields.append(key, entryDocument.get(key));
+                }
+                if(!fields.isEmpty())
+                {
+                    Main.getDBDriver().getEventWriter().set(se.getId(), fields);
+                }
+
+                // rsvp membership is written immediately so that concurrent rsvps merge atomically
+                if(dirty.contains("rsvp_members"))
+                {
+                    Main.getDBDriver().getEventCollection()
+                            .updateOne(eq("_id", se.getId()), set("rsvp_members", se.getRsvpMembers()));
+                }
+                else
+                {
+                    for(Document update : se.getRsvpUpdates())
+                    {
+                        Main.getDBDriver().getEventCollection().updateOne(eq("_id", se.getId()), update);
+                    }
+                }
+                se.clearDirtyFields();
+                scheduler.schedule(se);
 
                 // auto-sort
                 autoSort(sort, channelId);
@@ -326,7 +385,38 @@ public class EntryManager
      */
     public void removeEntry( Integer entryId )
     {
+        Main.getDBDriver().getEventWriter().discard(entryId);
         Main.getDBDriver().getEventCollection().findOneAndDelete(eq("_id", entryId));
+        this.scheduler.unschedule(entryId);
+    }
+
+    /**
+     * removes several entries of a schedule from the database with a single query, and deletes their messages
+     * @param channel the schedule the entries belong to
+     * @param entryDocuments the entries' documents, holding at least the _id and messageId fields
+     */
+    public void removeEntries(TextChannel channel, Collection<Document> entryDocuments)
+    {
+        if(entryDocuments.isEmpty()) return;
+
+        List<Integer> entryIds = new ArrayList<>();
+        for(Document document : entryDocuments)
+        {
+            Integer entryId = document.getInteger("_id");
+            Main.getDBDriver().getEventWriter().discard(entryId);
+            this.scheduler.unschedule(entryId);
+            entryIds.add(entryId);
+        }
+        Main.getDBDriver().getEventCollection().deleteMany(in("_id", entryIds));
+
+        for(Document document : entryDocuments)
+        {
+            String messageId = document.getString("messageId");
+            if(messageId == null) continue;
+            // the message may already have been deleted, failures are of no consequence
+            RequestQueue.delete(channel.getId(), messageId, RequestQueue.priority.PRUNE,
+                    () -> channel.deleteMessageById(messageId));
+        }
     }
 
     /**
@@ -337,9 +427,19 @@ public class EntryManager
     {
         ScheduleEntry se = getEntry( eId );
         if( se == null ) return;
+        this.scheduler.schedule(se);
         se.reloadDisplay();
     }
 
+    /**
+     * retrieves the in-memory index of upcoming event transitions
+     * @return EntryScheduler
+     */
+    EntryScheduler getScheduler()
+    {
+        return this.scheduler;
+    }
+
     /**
      * generates a new ID randomly from a 32bit space
      * @return (Integer) new, unused id
@@ -359,6 +459,193 @@ public class EntryManager
         return ID;
     }
 
+    /**
+     * atomically adds a member to an event's rsvp group, removing the member from other groups,
+     * the group's limit is enforced by the update's query so that concurrent additions cannot exceed it
+     * @param entryId (Integer) event ID
+     * @param group (String) rsvp group to add the member to
+     * @param limit (int) maximum size of the group, -1 for no limit
+     * @param others (Collection) rsvp groups to remove the member from
+     * @param member (String) member ID
+     * @return (Document) the event document before the update, or null if the group is full or the event does not exist
+     */
+    public Document addRsvpMember(Integer entryId, String group, int limit, Collection<String> others, String member)
+    {
+        if(limit == 0) return null;
+        if(!ScheduleEntry.isPathSafe(group) || !others.stream().allMatch(ScheduleEntry::isPathSafe))
+        {
+            return this.updateRsvpMembers(entryId, members ->
+            {
+                List<String> list = members.computeIfAbsent(group, k -> new ArrayList<>());
+                if(!list.contains(member))
+                {
+                    if(limit > 0 && list.size() >= limit) return false;
+                    list.add(member);
+                }
+                for(String other : others)
+                {
+                    if(members.containsKey(other)) members.get(other).remove(member);
+                }
+                return true;
+            });
+        }
+        try
+        {
+            Bson query = eq("_id", entryId);
+            if(limit > 0)
+            {
+                // the group is not full if it has no element at index limit-1 (or already contains the member)
+                query = and(query, or(
+                        exists("rsvp_members."+group+"."+(limit-1), false),
+                        eq("rsvp_members."+group, member)));
+            }
+
+            List<Bson> updates = new ArrayList<>();
+            updates.add(addToSet("rsvp_members."+group, member));
+            for(String other : others)
+            {
+                updates.add(pull("rsvp_members."+other, member));
+            }
+
+            return Main.getDBDriver().getEventCollection().findOneAndUpdate(query, combine(updates),
+                    new FindOneAndUpdateOptions().returnDocument(ReturnDocument.BEFORE));
+        }
+        catch(Exception e)
+        {
+            Logging.exception(EntryManager.class, e);
+            return null;
+        }
+    }
+
+    /**
+     * atomically removes a member from an event's rsvp groups
+     * @param entryId (Integer) event ID
+     * @param groups (Collection) rsvp groups to remove the member from
+     * @param member (String) member ID
+     * @return (Document) the event document before the update, or null if the event does not exist
+     */
+    public Document removeRsvpMember(Integer entryId, Collection<String> groups, String member)
+    {
+        if(groups.isEmpty()) return null;
+        if(!groups.stream().allMatch(ScheduleEntry::isPathSafe))
+        {
+            return this.updateRsvpMembers(entryId, members ->
+            {
+                for(String group : groups)
+                {
+                    if(members.containsKey(group)) members.get(group).remove(member);
+                }
+                return true;
+            });
+        }
+        try
+        {
+            List<Bson> updates = new ArrayList<>();
+            for(String group : groups)
+            {
+                updates.add(pull("rsvp_members."+group, member));
+            }
+            if(updates.isEmpty()) return null;
+
+            return Main.getDBDriver().getEventCollection().findOneAndUpdate(eq("_id", entryId), combine(updates),
+                    new FindOneAndUpdateOptions().returnDocument(ReturnDocument.BEFORE));
+        }
+        catch(Exception e)
+        {
+            Logging.exception(EntryManager.class, e);
+            return null;
+        }
+    }
+
+    /**
+     * rewrites an event's full rsvp map, used when a group name cannot be used in a dotted field path,
+     * the map is only written if it has not changed since it was read, otherwise the change is retried
+     * @param entryId (Integer) event ID
+     * @param change (Predicate) modifies the map, returns false if no update should be made
+     * @return (Document) the event document before the update, or null if no update was made
+     */
+    @SuppressWarnings("unchecked")
+    private Document updateRsvpMembers(Integer entryId, Predicate<Map<String, List<String>>> change)
+    {
+        try
+        {
+            for(int attempt=0; attempt<RSVP_RETRIES; attempt++)
+            {
+                Document document = Main.getDBDriver().getEventCollection().find(eq("_id", entryId)).first();
+                if(document == null) return null;
+
+                Object current = document.get("rsvp_members");
+                Map<String, List<String>> members = new LinkedHashMap<>();
+                if(current != null)
+                {
+                    ((Map<String, List<String>>) current).forEach((key, value) -> members.put(key, new ArrayList<>(value)));
+                }
+                if(!change.test(members)) return null;
+
+                UpdateResult result = Main.getDBDriver().getEventCollection()
+                        .updateOne(and(eq("_id", entryId), eq("rsvp_members", current)),
+                                set("rsvp_members", new Document(new LinkedHashMap<>(members))));
+                if(result.getMatchedCount() > 0) return document;
+            }
+            Logging.warn(EntryManager.class, "Gave up updating rsvp members of event " + entryId + " after concurrent changes");
+            return null;
+        }
+        catch(Exception e)
+        {
+            Logging.exception(EntryManager.class, e);
+            return null;
+        }
+    }
+
+    /**
+     * schedules a reload of an event's display, multiple requests for the same event made
+     * within REFRESH_DELAY are coalesced into a single message edit
+     * @param entryId (Integer) event ID
+     */
+    public void queueDisplayRefresh(Integer entryId)
+    {
+        if(!this.pendingRefresh.add(entryId)) return;
+        this.refreshScheduler.schedule(() ->
+        {
+            this.pendingRefresh.remove(entryId);
+            try
+            {
+                ScheduleEntry se = this.getEntry(entryId);
+                if(se != null) se.reloadDisplay();
+            }
+            catch(Exception e)
+            {
+                Logging.exception(EntryManager.class, e);
+            }
+        }, REFRESH_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * counts an attempted edit of an event's display
+     * @param suppressed true if the edit was skipped because the content was unchanged
+     */
+    void recordEdit(boolean suppressed)
+    {
+        if(suppressed) this.editsSuppressed.increment();
+        else this.editsSent.increment();
+    }
+
+    /**
+     * @return number of display edits sent to discord
+     */
+    public long getEditsSent()
+    {
+        return this.editsSent.sum();
+    }
+
+    /**
+     * @return number of display edits skipped because the message already showed the same content
+     */
+    public long getEditsSuppressed()
+    {
+        return this.editsSuppressed.sum();
+    }
+
     /**
      * Finds an event and returns it's newly created class object if it exists
      * @param entryId (Integer) event ID
@@ -371,7 +658,7 @@ public class EntryManager
 
         if (entryDocument != null)
         {
-            return new ScheduleEntry(entryDocument);
+            return new ScheduleEntry(Main.getDBDriver().getEventWriter().apply(entryDocument));
         }
         else    // otherwise return null
         {
@@ -379,6 +666,25 @@ public class EntryManager
         }
     }
 
+    /**
+     * Retrieves several entries from the database with a single query
+     * @param entryIds IDs of the entries
+     * @return the found entries mapped by ID, IDs of entries which do not exist are absent
+     */
+    public Map<Integer, ScheduleEntry> getEntries(Collection<Integer> entryIds)
+    {
+        Map<Integer, ScheduleEntry> entries = new HashMap<>();
+        if(entryIds.isEmpty()) return entries;
+
+        Main.getDBDriver().getEventCollection().find(in("_id", entryIds))
+                .forEach((Consumer<? super Document>) document ->
+                {
+                    ScheduleEntry se = new ScheduleEntry(Main.getDBDriver().getEventWriter().apply(document));
+                    entries.put(se.getId(), se);
+                });
+        return entries;
+    }
+
     /**
      * Finds an event by id that also belongs to a specific guild
      * @param entryId (Integer) event ID
@@ -392,7 +698,7 @@ public class EntryManager
 
         if (entryDocument != null)
         {
-            return new ScheduleEntry(entryDocument);
+            return new ScheduleEntry(Main.getDBDriver().getEventWriter().apply(entryDocument));
         }
         else    // otherwise return null
         {
@@ -422,7 +728,8 @@ public class EntryManager
     public Collection<ScheduleEntry> getEntriesFromChannel(String channelId)
     {
         MongoIterable<ScheduleEntry> entries = Main.getDBDriver().getEventCollection()
-                .find(eq("channelId", channelId)).map(ScheduleEntry::new);
+                .find(eq("channelId", channelId))
+                .map(document -> new ScheduleEntry(Main.getDBDriver().getEventWriter().apply(document)));
 
         return entries.into(new ArrayList<>());
     }
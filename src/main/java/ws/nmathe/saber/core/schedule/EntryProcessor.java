@@ -4,42 +4,39 @@ import net.dv8tion.jda.core.JDA;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ExecutorManager;
 import ws.nmathe.saber.utils.Logging;
-import ws.nmathe.saber.utils.MessageUtilities;
 
 import java.time.ZonedDateTime;
 import java.util.Date;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
 
 /**
- * Used by the Main scheduler timer, a new thread is executed every minute/5minutes/1hour/1day.
- * processes all entries referenced in the collection passed in, checking the start/end time and updating the
- * "time until" display timers.
- * a thread is spawned for each event operation to avoid one problematic event hanging-up the class
+ * Used by the Main scheduler timer, a new thread is executed every second/5minutes/30minutes.
+ * Start/end/remind/announce transitions are taken from the EntryManager's in-memory EntryScheduler
+ * once they come due, the database is swept at a lower frequency only to recover missed transitions.
+ * Also updates each event's "time until" display timer at the moment the displayed text changes.
+ * Queued events are processed by the EntryDrain, which gives each guild a fair share of its workers.
  */
 class EntryProcessor implements Runnable
 {
     // thread pool used to reload displays of events
-    private static ExecutorService executor = Executors.newCachedThreadPool();
+    private static ExecutorService executor = Main.getExecutorManager().get(ExecutorManager.pool.DISPLAY);
 
-    // future and executor used exclusively when emptying the queue
-    private static Future future = null;
-    private static ExecutorService singleExecutor = Executors.newSingleThreadExecutor();
+    // queued events waiting to be processed, held per guild
+    private static final EntryDrain drain = new EntryDrain();
+    private static final int REFRESH_BACKLOG = 5000;    // queued display reloads at which refreshes are held back
 
-    private enum queue { END_QUEUE, START_QUEUE, REMIND_QUEUE, ANNOUNCEMENT_QUEUE }
+    // REFRESH_QUEUE triggers are not queued, the display reload is handed directly to the display pool
+    enum queue { END_QUEUE, START_QUEUE, REMIND_QUEUE, ANNOUNCEMENT_QUEUE, REFRESH_QUEUE }
 
     private EntryManager.type type;
-    private static Queue<Integer> endQueue = new ConcurrentLinkedQueue<>();
-    private static Queue<Integer> startQueue = new ConcurrentLinkedQueue<>();
-    private static Queue<Integer> remindQueue = new ConcurrentLinkedQueue<>();
-    private static Queue<Integer> announcementQueue = new ConcurrentLinkedQueue<>();
 
     /** construct the entry processor with type */
     EntryProcessor(EntryManager.type type)
@@ -52,7 +49,7 @@ class EntryProcessor implements Runnable
     {
         try
         {
-            if(type == EntryManager.type.FILL)    // fill the queues
+            if(type == EntryManager.type.FILL)    // fill the queues with any transitions the scheduler has missed
             {
                 Logging.info(this.getClass(), "Processing entries: Filling queues. . .");
 
@@ -80,135 +77,133 @@ class EntryProcessor implements Runnable
             }
             else if(type == EntryManager.type.EMPTY) // process and empty the queues
             {
-                // execute new thread to empty queues
-                // the future/executor system is used to insure that event.getMessage() issues
-                // will not indefinitely hang up processing while maintaining serial execution of events
-                if (future!=null && !future.isDone())
-                    if (!future.cancel(true))       // cancel thread; log warning if future fails to be cancelled
-                        Logging.warn(this.getClass(), "Failed to cancel Queue Emptying thread's future!");
+                // move transitions which have come due from the scheduler into the queues
+                queueDueEvents();
 
-                future = singleExecutor.submit(() ->
-                {
-                    Logging.info(this.getClass(), "Processing entries: Emptying queues. . .");
-                    while(endQueue.peek() != null)
-                    {
-                        Main.getEntryManager().getEntry(endQueue.poll()).end();
-                    }
-                    while(startQueue.peek() != null)
-                    {
-                        Main.getEntryManager().getEntry(startQueue.poll()).start();
-                    }
-                    while(remindQueue.peek() != null)
-                    {
-                        Main.getEntryManager().getEntry(remindQueue.poll()).remind();
-                    }
-                    while(announcementQueue.peek() != null)
-                    {
-                        Main.getEntryManager().getEntry(announcementQueue.poll()).announce();
-                    }
-                    Logging.info(this.getClass(), "Finished emptying queues.");
-                });
+                // start workers to process the queued events, work left from a previous pass is continued
+                drain.drain();
             }
-            else
+            else if(type == EntryManager.type.EXPIRE)
             {
-                Bson query = new Document(); // should an invalid level ever be passed in, all entries will be reloaded!
+                Logging.info(this.getClass(), "Processing entries: removing expiring events. . .");
 
-                Logging.info(this.getClass(), "Processing entries: updating timers. . .");
-                if(type == EntryManager.type.UPDATE1)
-                {
-                    // adjust timers for entries starting/ending within the next hour
-                    query = or(
-                            and(
-                                    eq("hasStarted",false),
-                                    and(
-                                            lte("start", Date.from(ZonedDateTime.now().plusHours(1).toInstant())),
-                                            gte("start", Date.from(ZonedDateTime.now().plusMinutes(4).toInstant()))
-                                    )
-                            ),
-                            and(
-                                    eq("hasStarted", true),
-                                    and(
-                                            lte("end", Date.from(ZonedDateTime.now().plusHours(1).toInstant())),
-                                            gte("end", Date.from(ZonedDateTime.now().plusMinutes(4).toInstant()))
-                                    )
-                            )
-                    );
+                // purge expiring events
+                Bson query = and(Main.getShardManager().getShardFilter(),
+                        lte("expire", Date.from(ZonedDateTime.now().plusDays(1).toInstant())));
 
-                }
-                if(type == EntryManager.type.UPDATE2)
+                //delete message objects
+                Main.getDBDriver().getEventCollection().find(query).forEach((Consumer<? super Document>) document ->
                 {
-                    // purge expiring events
-                    query = lte("expire", Date.from(ZonedDateTime.now().plusDays(1).toInstant()));
+                    (new ScheduleEntry(document)).deleteMessage();
+                });
 
-                    //delete message objects
-                    Main.getDBDriver().getEventCollection().find(query).forEach((Consumer<? super Document>) document ->
-                    {
-                        MessageUtilities.deleteMsg((new ScheduleEntry(document)).getMessageObject(), null);
-                    });
+                // bulk delete entries from the database
+                Main.getDBDriver().getEventCollection().deleteMany(query);
 
-                    // bulk delete entries from the database
-                    Main.getDBDriver().getEventCollection().deleteMany(query);
+                Logging.info(this.getClass(), "Finished processing entries. . .");
+            }
+        }
+        catch(Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
 
-                    // adjust timers
-                    query = or(and(
-                            eq("hasStarted",false),
-                            and(
-                                    lte("start", Date.from(ZonedDateTime.now().plusDays(1).toInstant())),
-                                    gte("start", Date.from(ZonedDateTime.now().plusHours(1).toInstant()))
-                            )),
-                            and(
-                                    eq("hasStarted", true),
-                                    and(
-                                            lte("end", Date.from(ZonedDateTime.now().plusDays(1).toInstant())),
-                                            gte("end", Date.from(ZonedDateTime.now().plusHours(1).toInstant()))
-                                    )));
+    /**
+     * polls the EntryManager's scheduler for transitions which have come due and queues them,
+     * transitions for events on shards which are not connected are retried later
+     */
+    private void queueDueEvents()
+    {
+        for(EntryScheduler.Trigger trigger : Main.getEntryManager().getScheduler().poll(System.currentTimeMillis()))
+        {
+            // identify which shard is responsible for the schedule
+            JDA jda = Main.getShardManager().getJDA(trigger.guildId);
 
-                }
-                if(type == EntryManager.type.UPDATE3)
+            // if the shard is not connected, do not process the event yet
+            if(jda == null)
+            {
+                // refreshes are not found again by the database pass, keep them until the shard connects
+                if(trigger.queue == queue.REFRESH_QUEUE)
                 {
-                    // adjust timers for entries that aren't starting/ending within the next day
-                    query = or(
-                            and(
-                                    eq("hasStarted", false),
-                                    gte("start", Date.from(ZonedDateTime.now().plusDays(1).toInstant()))),
-                            and(
-                                    eq("hasStarted", true),
-                                    gte("end", Date.from(ZonedDateTime.now().plusDays(1).toInstant()))));
-
+                    Main.getEntryManager().getScheduler().defer(trigger, 30*1000);
                 }
+                continue;
+            }
+            if(JDA.Status.valueOf("CONNECTED") != jda.getStatus())
+            {
+                Main.getEntryManager().getScheduler().defer(trigger, 30*1000);
+                continue;
+            }
+            if(trigger.queue == queue.REFRESH_QUEUE)
+            {
+                refreshDisplay(trigger);
+                continue;
+            }
+            drain.add(trigger.queue, trigger.guildId, trigger.entryId);
+        }
+    }
 
-                // reload entries based on the appropriate query
-                Main.getDBDriver().getEventCollection().find(query)
-                        .forEach((Consumer<? super Document>) document ->
-                        {
-                            // identify which shard is responsible for the schedule
-                            String guildId = document.getString("guildId");
-                            JDA jda = Main.getShardManager().getJDA(guildId);
-
-                            // if the shard is not connected, do process the event
-                            if(jda == null) return;
-                            if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
-
-                            executor.execute(() ->
-                            {
-                                try
-                                {   // convert to scheduleEntry object and start
-                                    (new ScheduleEntry(document)).reloadDisplay();
-                                }
-                                catch(Exception e)
-                                {
-                                    Logging.exception(this.getClass(), e);
-                                }
-                            });
-                        });
+    /**
+     * reloads the display of an event whose timer has changed and schedules it's next refresh
+     * @param trigger the event's refresh trigger
+     */
+    private void refreshDisplay(EntryScheduler.Trigger trigger)
+    {
+        // the display pool discards tasks when saturated, hold refreshes back rather than lose them
+        if(Main.getExecutorManager().getQueueDepth(ExecutorManager.pool.DISPLAY) >= REFRESH_BACKLOG)
+        {
+            Main.getEntryManager().getScheduler().defer(trigger, 30*1000);
+            return;
+        }
 
-                Logging.info(this.getClass(), "Finished processing entries. . .");
+        // the refresh is retried unless the reload replaces this trigger with the event's next refresh,
+        // so that a discarded task or a failed reload does not leave the display stale
+        Main.getEntryManager().getScheduler().defer(trigger, 30*1000);
+        executor.execute(() ->
+        {
+            try
+            {
+                ScheduleEntry se = Main.getEntryManager().getEntry(trigger.entryId);
+                if(se == null)
+                {
+                    Main.getEntryManager().getScheduler().unschedule(trigger.entryId);
+                    return;
+                }
+                se.reloadDisplay();
+                Main.getEntryManager().getScheduler().scheduleRefresh(se);
             }
-        }
-        catch(Exception e)
+            catch(Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+        });
+    }
+
+    /**
+     * verifies that a queued event (freshly loaded from the database) still requires processing,
+     * the event may have been edited or removed since it was queued
+     * @param se the event, may be null
+     * @param queueIdentifier which queue the event was taken from
+     * @return true if the event should be processed
+     */
+    static boolean isDue(ScheduleEntry se, queue queueIdentifier)
+    {
+        if(se == null) return false;
+        Date now = new Date();
+        switch(queueIdentifier)
         {
-            Logging.exception(this.getClass(), e);
+            case END_QUEUE:
+                return se.hasStarted() && !se.getEnd().toInstant().isAfter(now.toInstant());
+            case START_QUEUE:
+                return !se.hasStarted() && !se.getStart().toInstant().isAfter(now.toInstant());
+            case REMIND_QUEUE:
+                List<Date> reminders = se.hasStarted() ? se.getEndReminders() : se.getReminders();
+                return reminders.stream().anyMatch(date -> !date.after(now));
+            case ANNOUNCEMENT_QUEUE:
+                return se.getAnnouncements().stream().anyMatch(date -> !date.after(now));
         }
+        return false;
     }
 
     /**
@@ -218,7 +213,8 @@ class EntryProcessor implements Runnable
      */
     private void processAndQueueEvents(queue queueIdentifier, Bson query)
     {
-        Main.getDBDriver().getEventCollection().find(query)
+        Main.getDBDriver().getEventCollection().find(and(Main.getShardManager().getShardFilter(), query))
+                .projection(fields(include("_id", "guildId")))
                 .forEach((Consumer<? super Document>) document ->
                 {
                     // identify which shard is responsible for the schedule
@@ -231,42 +227,7 @@ class EntryProcessor implements Runnable
 
                     try
                     {
-                        ScheduleEntry se = (new ScheduleEntry(document));
-                        switch(queueIdentifier)
-                        {
-                            case END_QUEUE:
-                                if(!endQueue.contains(se.getId()))
-                                {
-                                    endQueue.add(se.getId());
-                                    //Logging.info(this.getClass(), "Added \"" + se.getTitle() +
-                                    // "\" ["+se.getId()+"] to the end queue");
-                                }
-                                break;
-                            case REMIND_QUEUE:
-                                if(!remindQueue.contains(se.getId()))
-                                {
-                                    remindQueue.add(se.getId());
-                                    //Logging.info(this.getClass(), "Added \"" + se.getTitle() +
-                                    // "\" ["+se.getId()+"] to the remind queue");
-                                }
-                                break;
-                            case START_QUEUE:
-                                if(!startQueue.contains(se.getId()))
-                                {
-                                    startQueue.add(se.getId());
-                                    //Logging.info(this.getClass(), "Added \"" + se.getTitle() +
-                                    // "\" ["+se.getId()+"] to the start queue");
-                                }
-                                break;
-                            case ANNOUNCEMENT_QUEUE:
-                                if(!announcementQueue.contains(se.getId()))
-                                {
-                                    announcementQueue.add(se.getId());
-                                    //Logging.info(this.getClass(), "Added \"" + se.getTitle() +
-                                    // "\" ["+se.getId()+"] to the announce queue");
-                                }
-                                break;
-                        }
+                        drain.add(queueIdentifier, guildId, document.getInteger("_id"));
                     }
                     catch(Exception e)
                     {
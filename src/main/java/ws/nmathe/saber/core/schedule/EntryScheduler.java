@@ -0,0 +1,252 @@
+package ws.nmathe.saber.core.schedule;
+
+import org.bson.Document;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * In-memory index of the upcoming start/end/remind/announce transitions of every event
+ * handled by this process, ordered by the time at which each transition is due.
+ * Each event also has a refresh trigger for the moment its displayed countdown next changes.
+ * The index is loaded once when the EntryManager is initialized and is kept current by the
+ * EntryManager as events are created, updated, and removed.  The EntryProcessor polls the
+ * index every second for transitions which have come due.
+ */
+class EntryScheduler
+{
+    private final NavigableSet<Trigger> triggers = new TreeSet<>();       // all pending triggers, by due time
+    private final Map<Integer, List<Trigger>> index = new HashMap<>();    // maps event ID to it's pending triggers
+
+    /**
+     * loads the triggers of every event belonging to a guild on a shard
+     * @param shardId ID of the shard, 0 when sharding is disabled
+     */
+    @SuppressWarnings("unchecked")
+    void load(int shardId)
+    {
+        Logging.info(this.getClass(), "Loading event timers for shard " + shardId + ". . .");
+        int[] count = {0};
+        Main.getDBDriver().getEventCollection().find(Main.getShardManager().getShardFilter(shardId))
+                .projection(fields(include("_id", "guildId", "channelId", "hasStarted", "start", "end",
+                        "reminders", "end_reminders", "announcements")))
+                .forEach((Consumer<? super Document>) document ->
+                {
+                    try
+                    {
+                        // only index events belonging to the shard
+                        if(Main.getShardManager().getShardId(document.getString("guildId")) != shardId) return;
+                        count[0]++;
+
+                        this.schedule(document);
+                    }
+                    catch(Exception e)
+                    {
+                        Logging.exception(this.getClass(), e);
+                    }
+                });
+        Logging.info(this.getClass(), "Loaded the timers of " + count[0] + " events for shard " + shardId + ".");
+    }
+
+    /**
+     * (re)creates the triggers for an event from it's database document
+     * @param document event document, must contain the fields used by load()
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void schedule(Document document)
+    {
+        Integer entryId = document.getInteger("_id");
+        String guildId  = document.getString("guildId");
+        boolean started = document.getBoolean("hasStarted", false);
+
+        this.unschedule(entryId);
+        if(started)
+        {
+            this.add(new Trigger(document.getDate("end"), entryId, guildId, EntryProcessor.queue.END_QUEUE));
+            this.addAll((List<Date>) document.get("end_reminders"), entryId, guildId, EntryProcessor.queue.REMIND_QUEUE);
+        }
+        else
+        {
+            this.add(new Trigger(document.getDate("start"), entryId, guildId, EntryProcessor.queue.START_QUEUE));
+            this.addAll((List<Date>) document.get("reminders"), entryId, guildId, EntryProcessor.queue.REMIND_QUEUE);
+        }
+        this.addAll((List<Date>) document.get("announcements"), entryId, guildId, EntryProcessor.queue.ANNOUNCEMENT_QUEUE);
+
+        ZoneId zone = Main.getScheduleManager().getTimeZone(document.getString("channelId"));
+        Date refresh = MessageGenerator.nextTimerChange(
+                ZonedDateTime.ofInstant(document.getDate("start").toInstant(), zone),
+                ZonedDateTime.ofInstant(document.getDate("end").toInstant(), zone));
+        this.add(new Trigger(refresh, entryId, guildId, EntryProcessor.queue.REFRESH_QUEUE));
+    }
+
+    /**
+     * (re)creates the triggers for an event from it's ScheduleEntry object
+     * @param se the event, must have it's ID set
+     */
+    synchronized void schedule(ScheduleEntry se)
+    {
+        Integer entryId = se.getId();
+        String guildId  = se.getGuildId();
+
+        this.unschedule(entryId);
+        if(se.hasStarted())
+        {
+            this.add(new Trigger(Date.from(se.getEnd().toInstant()), entryId, guildId, EntryProcessor.queue.END_QUEUE));
+            this.addAll(se.getEndReminders(), entryId, guildId, EntryProcessor.queue.REMIND_QUEUE);
+        }
+        else
+        {
+            this.add(new Trigger(Date.from(se.getStart().toInstant()), entryId, guildId, EntryProcessor.queue.START_QUEUE));
+            this.addAll(se.getReminders(), entryId, guildId, EntryProcessor.queue.REMIND_QUEUE);
+        }
+        this.addAll(se.getAnnouncements(), entryId, guildId, EntryProcessor.queue.ANNOUNCEMENT_QUEUE);
+        this.add(new Trigger(MessageGenerator.nextTimerChange(se.getStart(), se.getEnd()),
+                entryId, guildId, EntryProcessor.queue.REFRESH_QUEUE));
+    }
+
+    /**
+     * replaces the display refresh trigger of an event, leaving it's other triggers untouched
+     * @param se the event, must have it's ID set
+     */
+    synchronized void scheduleRefresh(ScheduleEntry se)
+    {
+        List<Trigger> pending = this.index.get(se.getId());
+        if(pending != null)
+        {
+            Iterator<Trigger> iterator = pending.iterator();
+            while(iterator.hasNext())
+            {
+                Trigger trigger = iterator.next();
+                if(trigger.queue == EntryProcessor.queue.REFRESH_QUEUE)
+                {
+                    this.triggers.remove(trigger);
+                    iterator.remove();
+                }
+            }
+            if(pending.isEmpty()) this.index.remove(se.getId());
+        }
+        this.add(new Trigger(MessageGenerator.nextTimerChange(se.getStart(), se.getEnd()),
+                se.getId(), se.getGuildId(), EntryProcessor.queue.REFRESH_QUEUE));
+    }
+
+    /**
+     * removes all pending triggers for an event
+     * @param entryId ID of the event
+     */
+    synchronized void unschedule(Integer entryId)
+    {
+        List<Trigger> pending = this.index.remove(entryId);
+        if(pending != null)
+        {
+            this.triggers.removeAll(pending);
+        }
+    }
+
+    /**
+     * removes and returns every trigger which is due
+     * @param now current epoch time in milliseconds
+     * @return list of due triggers ordered by due time
+     */
+    synchronized List<Trigger> poll(long now)
+    {
+        List<Trigger> due = new ArrayList<>();
+        while(!this.triggers.isEmpty() && this.triggers.first().time <= now)
+        {
+            Trigger trigger = this.triggers.pollFirst();
+            List<Trigger> pending = this.index.get(trigger.entryId);
+            if(pending != null)
+            {
+                pending.remove(trigger);
+                if(pending.isEmpty()) this.index.remove(trigger.entryId);
+            }
+            due.add(trigger);
+        }
+        return due;
+    }
+
+    /**
+     * re-adds a polled trigger to fire again after a delay
+     * used when the shard responsible for the event is not currently connected
+     * @param trigger the trigger to delay
+     * @param delay delay in milliseconds
+     */
+    synchronized void defer(Trigger trigger, long delay)
+    {
+        this.add(new Trigger(new Date(System.currentTimeMillis()+delay), trigger.entryId, trigger.guildId, trigger.queue));
+    }
+
+    /**
+     * @return number of pending triggers
+     */
+    synchronized int size()
+    {
+        return this.triggers.size();
+    }
+
+    private void addAll(Collection<Date> dates, Integer entryId, String guildId, EntryProcessor.queue queue)
+    {
+        if(dates == null) return;
+        for(Date date : dates)
+        {
+            this.add(new Trigger(date, entryId, guildId, queue));
+        }
+    }
+
+    private void add(Trigger trigger)
+    {
+        if(trigger.time == Long.MAX_VALUE) return;
+        if(this.triggers.add(trigger))
+        {
+            this.index.computeIfAbsent(trigger.entryId, k -> new ArrayList<>()).add(trigger);
+        }
+    }
+
+    /**
+     * a single pending event transition
+     */
+    static class Trigger implements Comparable<Trigger>
+    {
+        final long time;
+        final Integer entryId;
+        final String guildId;
+        final EntryProcessor.queue queue;
+
+        Trigger(Date date, Integer entryId, String guildId, EntryProcessor.queue queue)
+        {
+            this.time    = date==null ? Long.MAX_VALUE : date.getTime();
+            this.entryId = entryId;
+            this.guildId = guildId;
+            this.queue   = queue;
+        }
+
+        @Override
+        public int compareTo(Trigger other)
+        {
+            int cmp = Long.compare(this.time, other.time);
+            if(cmp != 0) return cmp;
+            cmp = this.queue.compareTo(other.queue);
+            if(cmp != 0) return cmp;
+            return this.entryId.compareTo(other.entryId);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if(!(obj instanceof Trigger)) return false;
+            return this.compareTo((Trigger) obj) == 0;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.time, this.queue, this.entryId);
+        }
+    }
+}
@@ -3,14 +3,17 @@ package ws.nmathe.saber.core.schedule;
 import net.dv8tion.jda.core.EmbedBuilder;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.MessageBuilder;
+import net.dv8tion.jda.core.entities.MessageEmbed;
 import net.dv8tion.jda.core.entities.Role;
+import com.google.common.hash.Hashing;
 import org.apache.commons.lang3.StringUtils;
 import ws.nmathe.saber.Main;
 import net.dv8tion.jda.core.entities.Message;
 import ws.nmathe.saber.utils.ParsingUtilities;
-import ws.nmathe.saber.utils.VerifyUtilities;
+import ws.nmathe.saber.utils.UrlValidator;
 
 import java.awt.*;
+import java.nio.charset.StandardCharsets;
 import java.time.format.DateTimeFormatter;
 import java.time.format.TextStyle;
 import java.time.temporal.ChronoUnit;
@@ -32,7 +35,7 @@ public class MessageGenerator
     {
         JDA jda = Main.getShardManager().getJDA(se.getGuildId());
 
-        String titleUrl = (se.getTitleUrl() != null && VerifyUtilities.verifyUrl(se.getTitleUrl())) ?
+        String titleUrl = UrlValidator.isUsable(se.getTitleUrl()) ?
                 se.getTitleUrl() : "https://nmathe.ws/bots/saber";
         String titleImage = "https://upload.wikimedia.org/wikipedia/en/8/8d/Calendar_Icon.png";
         String footerStr = "ID: " + ParsingUtilities.intToEncodedID(se.getId());
@@ -108,15 +111,7 @@ public class MessageGenerator
         }
 
         // generate the body of the embed
-        String bodyContent;
-        if(Main.getScheduleManager().getStyle(se.getChannelId()).toLowerCase().equals("narrow"))
-        {
-            bodyContent = generateBodyNarrow(se);
-        }
-        else
-        {
-            bodyContent = generateBodyFull(se);
-        }
+        String bodyContent = generateBody(se);
 
         // build the embed
         EmbedBuilder builder = new EmbedBuilder();
@@ -125,11 +120,11 @@ public class MessageGenerator
                 .setAuthor(se.getTitle(), titleUrl, titleImage)
                 .setFooter(footerStr, null);
 
-        if(se.getImageUrl() != null && VerifyUtilities.verifyUrl(se.getImageUrl()))
+        if(UrlValidator.isUsable(se.getImageUrl()))
         {
             builder.setImage(se.getImageUrl());
         }
-        if(se.getThumbnailUrl() != null && VerifyUtilities.verifyUrl(se.getThumbnailUrl()))
+        if(UrlValidator.isUsable(se.getThumbnailUrl()))
         {
             builder.setThumbnail(se.getThumbnailUrl());
         }
@@ -137,6 +132,41 @@ public class MessageGenerator
     }
 
 
+    /**
+     * Computes a hash of the content of a message, used to recognize renders identical to what is already displayed
+     * @param message the generated message
+     * @return hex string of the content hash
+     */
+    public static String fingerprint(Message message)
+    {
+        StringBuilder content = new StringBuilder();
+        if(message.getRawContent() != null) content.append(message.getRawContent());
+        for(MessageEmbed embed : message.getEmbeds())
+        {
+            content.append('\0').append(embed.toJSONObject().toString());
+        }
+        return Hashing.murmur3_128().hashString(content, StandardCharsets.UTF_8).toString();
+    }
+
+
+    /**
+     * Generates the body content of the discord message using the display style of the event's schedule
+     * @param se the ScheduleEntry Object represented by the display
+     * @return the body content as a string
+     */
+    public static String generateBody(ScheduleEntry se)
+    {
+        if(Main.getScheduleManager().getStyle(se.getChannelId()).toLowerCase().equals("narrow"))
+        {
+            return generateBodyNarrow(se);
+        }
+        else
+        {
+            return generateBodyFull(se);
+        }
+    }
+
+
     /**
      * Generates the body content of the discord message for events using the
      * "full" display style
@@ -288,6 +318,44 @@ public class MessageGenerator
     }
 
 
+    /**
+     * Determines when the string generated by genTimer() for an event will next change
+     * @param start the start time of event
+     * @param end the end time of event
+     * @return the time at which the display should next be refreshed, or null if the timer
+     *         will not change until the event starts or ends
+     */
+    static Date nextTimerChange(ZonedDateTime start, ZonedDateTime end)
+    {
+        ZonedDateTime now = ZonedDateTime.now();
+        ZonedDateTime target = start.isAfter(now) ? start : end;
+        long timeTil = now.until(target, ChronoUnit.SECONDS);
+
+        ZonedDateTime change;
+        if( timeTil < 60 * 60 )
+        {
+            // minutes are rounded up, 'in a minute' remains until the event starts or ends
+            long minutesTil = (long) Math.ceil((double)timeTil/60);
+            if( minutesTil <= 1 ) return null;
+            change = target.minusMinutes(minutesTil-1);
+        }
+        else if( timeTil < 24 * 60 * 60 )
+        {
+            // hours are rounded up, the last hour is shown as minutes
+            long hoursTil = (long) Math.ceil((double)timeTil/(60*60));
+            change = hoursTil <= 2 ? target.minusSeconds(60*60-1) : target.minusHours(hoursTil-1);
+        }
+        else
+        {
+            // days are counted between calendar dates, so the count changes at midnight
+            ZonedDateTime midnight = now.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            ZonedDateTime lastDay = target.minusSeconds(24*60*60-1);
+            change = midnight.isBefore(lastDay) ? midnight : lastDay;
+        }
+        return Date.from(change.toInstant().plusSeconds(1));    // refresh just after the change
+    }
+
+
     /**
      * Generated a string describing the current time left before an event begins or ends
      * @param start the start time of event
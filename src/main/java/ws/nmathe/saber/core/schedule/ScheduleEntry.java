@@ -3,11 +3,15 @@ package ws.nmathe.saber.core.schedule;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.*;
 import net.dv8tion.jda.core.events.message.react.MessageReactionAddEvent;
+import net.dv8tion.jda.core.exceptions.PermissionException;
+import net.dv8tion.jda.core.requests.RestAction;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.utils.MessageUtilities;
 import ws.nmathe.saber.utils.ParsingUtilities;
+import ws.nmathe.saber.utils.RequestQueue;
 import ws.nmathe.saber.utils.Logging;
+import ws.nmathe.saber.utils.UrlValidator;
 
 import java.awt.*;
 import java.time.*;
@@ -15,10 +19,9 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-
-import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Updates.set;
+import java.util.function.Function;
 
 /**
  * A ScheduleEntry object represents a currently scheduled entry is either waiting to start or has already started
@@ -33,6 +36,8 @@ public class ScheduleEntry
     private String chanId;
     private String guildId;
     private String googleId;
+    private String displayHash;                   // fingerprint of the content last shown by the message
+    private String importHash;                    // hash of the google calendar event content last imported
 
     // entry parameters
     private String entryTitle;                    // the title/name of the event
@@ -73,6 +78,11 @@ public class ScheduleEntry
     private Map<String, String> announcementTargets;   // maps ID to channel target
     private Map<String, String> announcementMessages;  // maps ID to announcement message
 
+    // modifications which have not yet been written to the database
+    private Set<String> dirtyFields = new HashSet<>();            // names of modified document fields
+    private Map<String, Set<String>> rsvpAdded = new HashMap<>();   // members added to each rsvp group
+    private Map<String, Set<String>> rsvpRemoved = new HashMap<>(); // members removed from each rsvp group
+
 
     /**
      * Constructor for a partially initialized ScheduleEntry
@@ -137,6 +147,8 @@ public class ScheduleEntry
         this.chanId   = (String) entryDocument.get("channelId");
         this.guildId  = (String) entryDocument.get("guildId");
         this.googleId = (String) entryDocument.get("googleId");
+        this.displayHash = (String) entryDocument.get("display_hash");
+        this.importHash = (String) entryDocument.get("import_hash");
 
         // entry zone information
         ZoneId zone = Main.getScheduleManager().getTimeZone(this.chanId);
@@ -151,6 +163,10 @@ public class ScheduleEntry
         // construct the recurrence object
         ZonedDateTime dtStart = entryDocument.get("orig_start")==null ?
                 this.entryStart : ZonedDateTime.ofInstant((entryDocument.getDate("orig_start")).toInstant(), zone);
+        if (entryDocument.get("orig_start") == null)
+        {   // legacy events lack the recurrence's start, it is filled in by the next write
+            this.markDirty("orig_start");
+        }
         if (entryDocument.get("recurrence") != null)
         {   // new recurrence design
             this.recurrence = new EventRecurrence(entryDocument.getInteger("recurrence"), dtStart);
@@ -217,8 +233,8 @@ public class ScheduleEntry
      */
     public void announce()
     {
-        Message msg = this.getMessageObject();
-        if(msg == null) return;         // if msg object is bad
+        TextChannel channel = this.getChannelObject();
+        if(channel == null) return;     // if the schedule is not reachable
 
         // collection of announcement IDs to be removed below enumeration
         Collection<String> removeQueue = new ArrayList<>();
@@ -235,7 +251,7 @@ public class ScheduleEntry
                     String target = this.announcementTargets.get(key);
                     try
                     {
-                        announcementHelper(msg, message, target);
+                        announcementHelper(channel.getGuild(), message, target, RequestQueue.priority.ANNOUNCEMENT);
                         Logging.event(this.getClass(), "Sent special announcement for event " +
                                 this.getTitle() + " [" + this.getId() + "]");
                     }
@@ -258,6 +274,7 @@ public class ScheduleEntry
                 this.announcements.remove(date);
             }
         });
+        this.markDirty("announcements");
         Main.getEntryManager().updateEntry(this, false);
     }
 
@@ -266,8 +283,8 @@ public class ScheduleEntry
      */
     public void remind()
     {
-        Message msg = this.getMessageObject();
-        if(msg == null) return;         // if msg object is bad
+        TextChannel channel = this.getChannelObject();
+        if(channel == null) return;     // if the schedule is not reachable
 
         if(!this.quietRemind)
         {
@@ -276,7 +293,7 @@ public class ScheduleEntry
             String identifier = Main.getScheduleManager().getReminderChan(this.chanId);
             if(identifier != null)
             {
-                announcementHelper(msg, remindMsg, identifier);
+                announcementHelper(channel.getGuild(), remindMsg, identifier, RequestQueue.priority.REMINDER);
                 Logging.event(this.getClass(), "Sent reminder for event " + this.getTitle() + " [" + this.getId() + "]");
             }
         }
@@ -284,6 +301,7 @@ public class ScheduleEntry
         // remove expired reminders
         this.reminders.removeIf(date -> date.before(new Date()));
         this.endReminders.removeIf(date -> date.before(new Date()));
+        this.markDirty("reminders", "end_reminders");
         Main.getEntryManager().updateEntry(this, false);
     }
 
@@ -292,8 +310,8 @@ public class ScheduleEntry
      */
     public void start()
     {
-        Message msg = this.getMessageObject();
-        if( msg == null ) return;
+        TextChannel channel = this.getChannelObject();
+        if( channel == null ) return;
 
         if(!this.quietStart)
         {
@@ -304,7 +322,7 @@ public class ScheduleEntry
                 String identifier = Main.getScheduleManager().getStartAnnounceChan(this.chanId);
                 if(identifier != null)
                 {
-                    announcementHelper(msg, startMsg, identifier);
+                    announcementHelper(channel.getGuild(), startMsg, identifier, RequestQueue.priority.ANNOUNCEMENT);
                     Logging.event(this.getClass(), "Started event \"" + this.getTitle() + "\" [" + this.entryId + "] scheduled for " +
                             this.getStart().withZoneSameInstant(ZoneId.systemDefault())
                                     .truncatedTo(ChronoUnit.MINUTES).toLocalTime().toString());
@@ -326,7 +344,8 @@ public class ScheduleEntry
         {
             this.reloadDisplay();
             this.hasStarted = true;
-            Main.getDBDriver().getEventCollection().updateOne(eq("_id", this.entryId), set("hasStarted", true));
+            Main.getDBDriver().getEventWriter().set(this.entryId, "hasStarted", true);
+            Main.getEntryManager().getScheduler().schedule(this);
         }
     }
 
@@ -335,8 +354,8 @@ public class ScheduleEntry
      */
     public void end()
     {
-        Message msg = this.getMessageObject();
-        if(msg == null) return;
+        TextChannel channel = this.getChannelObject();
+        if(channel == null) return;
 
         if(!this.quietEnd)
         {
@@ -348,7 +367,7 @@ public class ScheduleEntry
                 String identifier = Main.getScheduleManager().getEndAnnounceChan(this.chanId);
                 if(identifier != null)
                 {
-                    announcementHelper(msg, endMsg, identifier);
+                    announcementHelper(channel.getGuild(), endMsg, identifier, RequestQueue.priority.ANNOUNCEMENT);
                     Logging.event(this.getClass(), "Ended event \"" + this.getTitle() + "\" [" + this.entryId + "] scheduled for " +
                             this.getEnd().withZoneSameInstant(ZoneId.systemDefault())
                                     .truncatedTo(ChronoUnit.MINUTES).toLocalTime().toString());
@@ -367,7 +386,7 @@ public class ScheduleEntry
      * processes a channel identifier (either a channel name or snowflake ID) into a valid channel
      * and sends an event announcement
      */
-    private void announcementHelper(Message message, String content, String channelIdentifier)
+    private void announcementHelper(Guild guild, String content, String channelIdentifier, RequestQueue.priority priority)
     {
         boolean success = false;
 
@@ -376,10 +395,10 @@ public class ScheduleEntry
         {
             try
             {
-                TextChannel channel = message.getGuild().getTextChannelById(channelIdentifier);
+                TextChannel channel = guild.getTextChannelById(channelIdentifier);
                 if(channel != null)
                 {
-                    MessageUtilities.sendMsg(content, channel, null);
+                    this.sendAnnouncement(channel, content, priority);
                     success = true;
                 }
             }
@@ -390,22 +409,34 @@ public class ScheduleEntry
         // treat the identifier as a channel name
         if(!success)
         {
-            List<TextChannel> channels = message.getGuild().getTextChannelsByName(channelIdentifier, true);
+            List<TextChannel> channels = guild.getTextChannelsByName(channelIdentifier, true);
             for( TextChannel chan : channels )
             {
-                MessageUtilities.sendMsg(content, chan, null);
+                this.sendAnnouncement(chan, content, priority);
             }
         }
     }
 
+    /**
+     * sends an announcement, or adds it to the open digest if the schedule has digest mode enabled
+     */
+    private void sendAnnouncement(TextChannel channel, String content, RequestQueue.priority priority)
+    {
+        if(Main.getScheduleManager().isDigestEnabled(this.chanId)
+                && AnnouncementDigest.collect(channel, content, priority))
+        {
+            return;
+        }
+        MessageUtilities.sendMsg(content, channel, priority, null);
+    }
+
 
     /**
      * Determines what needs to be done to an event when an event ends
      */
     public void repeat()
     {
-        Message msg = this.getMessageObject();
-        if( msg==null ) return;
+        if( this.getChannelObject()==null ) return;
 
         if(this.recurrence.shouldRepeat()) // find next repeat date and edit the message
         {
@@ -416,7 +447,7 @@ public class ScheduleEntry
             if(expire != null && expire.isBefore(this.getStart()))
             {
                 Main.getEntryManager().removeEntry(this.entryId);
-                MessageUtilities.deleteMsg(msg, null);
+                this.deleteMessage();
                 return;
             }
 
@@ -425,6 +456,7 @@ public class ScheduleEntry
 
             // clear rsvp members list and reload reminders
             this.rsvpMembers = new HashMap<>();
+            this.markDirty("rsvp_members");
             this.reloadReminders(Main.getScheduleManager().getReminders(this.chanId))
                     .reloadEndReminders(Main.getScheduleManager().getEndReminders(this.chanId));
             Main.getEntryManager().updateEntry(this, true);
@@ -432,7 +464,7 @@ public class ScheduleEntry
         else // otherwise remove entry and delete the message
         {
             Main.getEntryManager().removeEntry(this.entryId);
-            MessageUtilities.deleteMsg( msg, null );
+            this.deleteMessage();
         }
     }
 
@@ -443,9 +475,7 @@ public class ScheduleEntry
      */
     void reloadDisplay()
     {
-        Message msg = this.getMessageObject();
-        if( msg == null ) return;
-        MessageUtilities.editMsg(MessageGenerator.generate(this), msg, null);
+        this.editMessage(MessageGenerator.generate(this));
     }
 
 
@@ -487,6 +517,8 @@ public class ScheduleEntry
 
     /**
      * handles processing an reaction event
+     * membership is changed with a single atomic update on the event document (see EntryManager.addRsvpMember),
+     * so concurrent reactions do not overwrite one another
      * @param event reaction event
      * @return true if the reactin should be removed
      */
@@ -521,20 +553,12 @@ public class ScheduleEntry
         if(emoteIsRSVP)
         {
             String logging = Main.getScheduleManager().getRSVPLogging(chanId);
+            String userId = event.getUser().getId();
             if(emoteKey.equals(clearEmoji))
             {
                 // remove the user from groups
-                boolean atLeastOne = false;
-                for(String group : options.values())
-                {
-                    List<String> members = this.getRsvpMembersOfType(group);
-                    if (members.contains(event.getUser().getId()))
-                    {
-                        members.remove(event.getUser().getId());
-                        this.setRsvpMembers(group, members);
-                        atLeastOne = true;
-                    }
-                }
+                Document before = Main.getEntryManager().removeRsvpMember(this.entryId, options.values(), userId);
+                boolean atLeastOne = before != null && options.values().stream().anyMatch(group -> isRsvpMember(before, group, userId));
 
                 if(atLeastOne)  // if the user was removed from at least one group
                 {
@@ -548,12 +572,12 @@ public class ScheduleEntry
                     // log the rsvp action
                     if (!logging.isEmpty())
                     {
-                        String content = "<@" + event.getUser().getId() + "> has rescinded their RSVP(s) for **" +
+                        String content = "<@" + userId + "> has rescinded their RSVP(s) for **" +
                                 this.getTitle() + "** - :id: **" + ParsingUtilities.intToEncodedID(this.getId()) + "**";
                         MessageUtilities.sendMsg(content, event.getJDA().getTextChannelById(logging), null);
                     }
 
-                    Main.getEntryManager().updateEntry(this, false);
+                    Main.getEntryManager().queueDisplayRefresh(this.entryId);
                 }
             }
             else
@@ -561,54 +585,37 @@ public class ScheduleEntry
                 // get the name of the rsvp group
                 String name = options.get(emoteKey);
 
-                // if the rsvp group is full, do nothing
-                if(!this.isFull(name))
+                // remove the user from any other rsvp lists for that event if exclusivity is enabled
+                List<String> others = new ArrayList<>();
+                if(Main.getScheduleManager().isRSVPExclusive(event.getChannel().getId()))
                 {
-                    // add the user to the rsvp type
-                    List<String> members = this.getRsvpMembersOfType(name);
-                    if(!members.contains(event.getUser().getId()))
+                    options.values().stream().filter(group -> !group.equals(name)).forEach(others::add);
+                }
+
+                // add the user to the rsvp type, the update is not applied if the group is full
+                Document before = Main.getEntryManager().addRsvpMember(this.entryId, name, this.getRsvpLimit(name), others, userId);
+                if(before != null && !isRsvpMember(before, name, userId))
+                {
+                    boolean hasChangedRSVP = others.stream().anyMatch(group -> isRsvpMember(before, group, userId));
+
+                    // send rsvp confirmation to the user
+                    if (Main.getScheduleManager().isRSVPConfirmationsEnabled(chanId))
                     {
-                        members.add(event.getUser().getId());
-                        this.setRsvpMembers(name, members);
-
-                        // remove the user from any other rsvp lists for that event if exclusivity is enabled
-                        boolean hasChangedRSVP = false;
-                        if(Main.getScheduleManager().isRSVPExclusive(event.getChannel().getId()))
-                        {
-                            for(String group : options.values())
-                            {
-                                if (!group.equals(name))
-                                {
-                                    members = this.getRsvpMembersOfType(group);
-                                    if (members.contains(event.getUser().getId()))
-                                    {
-                                        members.remove(event.getUser().getId());
-                                        hasChangedRSVP = true;
-                                        this.setRsvpMembers(group, members);
-                                    }
-                                }
-                            }
-                        }
-
-                        // send rsvp confirmation to the user
-                        if (Main.getScheduleManager().isRSVPConfirmationsEnabled(chanId))
-                        {
-                            String content = "You " + (hasChangedRSVP ? "have changed your RSVP to":"have RSVPed") +
-                                    " ``" + name + "`` for **" + this.getTitle() + "**";
-                            MessageUtilities.sendPrivateMsg(content, event.getUser(), null);
-                        }
-
-                        // log the rsvp action
-                        if (!logging.isEmpty())
-                        {
-                            String content = "<@" + event.getUser().getId() + "> " +
-                                    (hasChangedRSVP ? "has changed their RSVP to":"has RSVPed") +" ``" + name + "`` for **" +
-                                    this.getTitle() + "** - :id: **" + ParsingUtilities.intToEncodedID(this.getId()) + "**";
-                            MessageUtilities.sendMsg(content, event.getJDA().getTextChannelById(logging), null);
-                        }
-
-                        Main.getEntryManager().updateEntry(this, false);
+                        String content = "You " + (hasChangedRSVP ? "have changed your RSVP to":"have RSVPed") +
+                                " ``" + name + "`` for **" + this.getTitle() + "**";
+                        MessageUtilities.sendPrivateMsg(content, event.getUser(), null);
                     }
+
+                    // log the rsvp action
+                    if (!logging.isEmpty())
+                    {
+                        String content = "<@" + userId + "> " +
+                                (hasChangedRSVP ? "has changed their RSVP to":"has RSVPed") +" ``" + name + "`` for **" +
+                                this.getTitle() + "** - :id: **" + ParsingUtilities.intToEncodedID(this.getId()) + "**";
+                        MessageUtilities.sendMsg(content, event.getJDA().getTextChannelById(logging), null);
+                    }
+
+                    Main.getEntryManager().queueDisplayRefresh(this.entryId);
                 }
             }
         }
@@ -618,6 +625,21 @@ public class ScheduleEntry
     }
 
 
+    /**
+     * checks an event document's rsvp lists for a member
+     * @param document event document
+     * @param group rsvp group name
+     * @param member member ID
+     * @return true if the member is in the group
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean isRsvpMember(Document document, String group, String member)
+    {
+        Map<String, List<String>> members = (Map<String, List<String>>) document.get("rsvp_members");
+        if(members == null || members.get(group) == null) return false;
+        return members.get(group).contains(member);
+    }
+
     /**
      */
     private ScheduleEntry setNextOccurrence()
@@ -625,6 +647,7 @@ public class ScheduleEntry
         long dif = this.entryEnd.toInstant().toEpochMilli()-this.entryStart.toInstant().toEpochMilli();
         this.entryStart = this.recurrence.next(this.entryStart);
         this.entryEnd   = this.entryStart.plus(dif, ChronoUnit.MILLIS);
+        this.markDirty("start", "end", "orig_start");
         return this;
     }
 
@@ -738,6 +761,14 @@ public class ScheduleEntry
         return this.googleId;
     }
 
+    /**
+     * retrieves the hash of the google calendar event content the entry was last imported from
+     */
+    public String getImportHash()
+    {
+        return this.importHash;
+    }
+
     /**
      * retrieves an rsvp category's limit
      */
@@ -901,9 +932,130 @@ public class ScheduleEntry
         return this.location;
     }
 
+    public String getMessageId()
+    {
+        return this.msgId;
+    }
+
+    /**
+     * retrieves the event's schedule channel from the shard's cache, no REST request is made
+     * @return (TextChannel) if available, otherwise null
+     */
+    public TextChannel getChannelObject()
+    {
+        JDA jda = Main.getShardManager().getJDA(this.guildId);
+        if(jda == null) return null;
+        return jda.getTextChannelById(this.chanId);
+    }
+
+    /**
+     * Asynchronously retrieves the discord Message
+     * @return future which completes with the Message, or completes exceptionally if it cannot be retrieved
+     */
+    public CompletableFuture<Message> fetchMessage()
+    {
+        TextChannel channel = this.getChannelObject();
+        if(channel == null || this.msgId == null) return this.unavailable();
+        String msgId = this.msgId;
+        return RequestQueue.submit(this.chanId, RequestQueue.priority.COMMAND, () -> channel.getMessageById(msgId));
+    }
+
+    /**
+     * Asynchronously replaces the content of the event's message using only the stored message ID,
+     * the message is not fetched beforehand
+     * The edit is skipped if the message already shows identical content
+     * @param content the new message content
+     * @return future which completes with the edited Message (or null if the edit was skipped),
+     *         or completes exceptionally on failure
+     */
+    public CompletableFuture<Message> editMessage(Message content)
+    {
+        return this.editMessage(content, RequestQueue.priority.DISPLAY);
+    }
+
+    /**
+     * Asynchronously replaces the content of the event's message with a specific priority,
+     * a waiting edit of the same message is replaced by this edit
+     * @param content the new message content
+     * @param priority the priority of the edit
+     * @return future which completes with the edited Message (or null if the edit was skipped),
+     *         or completes exceptionally on failure
+     */
+    public CompletableFuture<Message> editMessage(Message content, RequestQueue.priority priority)
+    {
+        String hash = MessageGenerator.fingerprint(content);
+        if(this.msgId != null && hash.equals(this.displayHash))
+        {
+            Main.getEntryManager().recordEdit(true);
+            return CompletableFuture.completedFuture(null);
+        }
+        Main.getEntryManager().recordEdit(false);
+
+        String msgId = this.msgId;
+        CompletableFuture<Message> future = this.request(priority, false, channel -> channel.editMessageById(msgId, content));
+        future.thenAccept(msg ->
+        {
+            // the edit may have been dropped by a deletion, or the message reassigned while the edit was in flight
+            if(msg == null || this.entryId == null || !msgId.equals(this.msgId)) return;
+            this.displayHash = hash;
+            Main.getDBDriver().getEventWriter().set(this.entryId, "display_hash", hash);
+        });
+        future.exceptionally(e -> this.logRequestFailure("edit", e));
+        return future;
+    }
+
+    /**
+     * Asynchronously removes the event's message using only the stored message ID
+     * @return future which completes once the message is removed, or completes exceptionally on failure
+     */
+    public CompletableFuture<Void> deleteMessage()
+    {
+        String msgId = this.msgId;
+        CompletableFuture<Void> future = this.request(RequestQueue.priority.PRUNE, true, channel -> channel.deleteMessageById(msgId));
+        future.exceptionally(e -> this.logRequestFailure("delete", e));
+        return future;
+    }
+
+    /**
+     * queues an edit or removal of the event's message on the RequestQueue
+     * @param priority priority of the request
+     * @param isDelete true if the request removes the message
+     * @param request function creating the RestAction from the channel
+     * @return future completed by the request's success or failure callback
+     */
+    private <T> CompletableFuture<T> request(RequestQueue.priority priority, boolean isDelete,
+                                             Function<TextChannel, RestAction<T>> request)
+    {
+        TextChannel channel = this.getChannelObject();
+        if(channel == null || this.msgId == null) return this.unavailable();
+
+        if(isDelete)
+        {
+            return RequestQueue.delete(this.chanId, this.msgId, priority, () -> request.apply(channel));
+        }
+        return RequestQueue.edit(this.chanId, this.msgId, priority, () -> request.apply(channel));
+    }
+
+    private <T> CompletableFuture<T> unavailable()
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(new IllegalStateException("Event message for ["+this.entryId+"] is unavailable"));
+        return future;
+    }
+
+    private <T> T logRequestFailure(String action, Throwable e)
+    {
+        if(!(e instanceof PermissionException))
+        {
+            Logging.warn(this.getClass(), "Unable to " + action + " message for event [" + this.entryId + "]: " + e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Attempts to retrieve the discord Message, if the message does not exist
      * (or the bot can for any other reason cannot retrieve it) the method returns null
+     * This method blocks for the REST request, use fetchMessage() or the message ID where possible
      * @return (Message) if exists, otherwise null
      */
     public Message getMessageObject()
@@ -934,6 +1086,7 @@ public class ScheduleEntry
     public ScheduleEntry setTitle(String title)
     {
         this.entryTitle = title;
+        this.markDirty("title");
         return this;
     }
 
@@ -946,8 +1099,10 @@ public class ScheduleEntry
         {
             // if the event's end is 'off', update the end to match start
             this.entryEnd = start;
+            this.markDirty("end");
         }
         this.entryStart = start;
+        this.markDirty("start", "orig_start");
         return this;
     }
 
@@ -957,6 +1112,7 @@ public class ScheduleEntry
     public ScheduleEntry setEnd(ZonedDateTime end)
     {
         this.entryEnd = end;
+        this.markDirty("end");
         return this;
     }
 
@@ -966,6 +1122,7 @@ public class ScheduleEntry
     public ScheduleEntry setComments(ArrayList<String> comments)
     {
         this.entryComments = comments;
+        this.markDirty("comments");
         return this;
     }
 
@@ -975,6 +1132,7 @@ public class ScheduleEntry
     public ScheduleEntry setRepeat(Integer repeat)
     {
         this.recurrence.setRepeat(repeat);
+        this.markDirty("recurrence", "orig_start");
         return this;
     }
 
@@ -984,6 +1142,8 @@ public class ScheduleEntry
     public ScheduleEntry setTitleUrl(String url)
     {
         this.titleUrl = url;
+        this.markDirty("url");
+        UrlValidator.prefetch(url);
         return this;
     }
 
@@ -1002,6 +1162,7 @@ public class ScheduleEntry
             }
         }
         this.reminders = startReminders;
+        this.markDirty("reminders");
         return this;
     }
 
@@ -1020,6 +1181,7 @@ public class ScheduleEntry
             }
         }
         this.endReminders = endReminders;
+        this.markDirty("end_reminders");
         return this;
     }
 
@@ -1029,6 +1191,17 @@ public class ScheduleEntry
     public ScheduleEntry setGoogleId(String id)
     {
         this.googleId = id;
+        this.markDirty("googleId");
+        return this;
+    }
+
+    /**
+     * set's the hash of the google calendar event content the entry was imported from
+     */
+    public ScheduleEntry setImportHash(String hash)
+    {
+        this.importHash = hash;
+        this.markDirty("import_hash");
         return this;
     }
 
@@ -1039,6 +1212,7 @@ public class ScheduleEntry
     {
         this.recurrence.setExpire(expire);
         this.recurrence.setCount(null);
+        this.markDirty("expire", "count");
         return this;
     }
 
@@ -1049,6 +1223,7 @@ public class ScheduleEntry
     {
         this.recurrence.setCount(count);
         this.recurrence.setExpire(null);
+        this.markDirty("count", "expire");
         return this;
     }
 
@@ -1058,6 +1233,8 @@ public class ScheduleEntry
     public ScheduleEntry setImageUrl(String url)
     {
         this.imageUrl = url;
+        this.markDirty("image");
+        UrlValidator.prefetch(url);
         return this;
     }
 
@@ -1067,6 +1244,8 @@ public class ScheduleEntry
     public ScheduleEntry setThumbnailUrl(String url)
     {
         this.thumbnailUrl = url;
+        this.markDirty("thumbnail");
+        UrlValidator.prefetch(url);
         return this;
     }
 
@@ -1076,6 +1255,7 @@ public class ScheduleEntry
     public ScheduleEntry setQuietStart(boolean bool)
     {
         this.quietStart = bool;
+        this.markDirty("start_disabled");
         return this;
     }
 
@@ -1085,6 +1265,7 @@ public class ScheduleEntry
     public ScheduleEntry setQuietEnd(boolean bool)
     {
         this.quietEnd = bool;
+        this.markDirty("end_disabled");
         return this;
     }
 
@@ -1094,6 +1275,7 @@ public class ScheduleEntry
     public ScheduleEntry setQuietRemind(boolean bool)
     {
         this.quietRemind = bool;
+        this.markDirty("reminders_disabled");
         return this;
     }
 
@@ -1103,6 +1285,7 @@ public class ScheduleEntry
     public ScheduleEntry setStarted(boolean bool)
     {
         this.hasStarted = bool;
+        this.markDirty("hasStarted");
         return this;
     }
 
@@ -1115,6 +1298,17 @@ public class ScheduleEntry
         return this;
     }
 
+    /**
+     * set the ID of the event's discord message, the message must be on the event's schedule channel
+     */
+    public ScheduleEntry setMessageId(String msgId)
+    {
+        this.msgId = msgId;
+        this.displayHash = null;
+        this.markDirty("messageId");
+        return this;
+    }
+
     /**
      * set the event's associated discord message object
      */
@@ -1123,6 +1317,8 @@ public class ScheduleEntry
         this.chanId = msg.getChannel().getId();
         this.guildId = msg.getGuild().getId();
         this.msgId = msg.getId();
+        this.displayHash = null;
+        this.markDirty("messageId", "channelId", "guildId");
         return this;
     }
 
@@ -1139,6 +1335,7 @@ public class ScheduleEntry
         {
             this.rsvpLimits.put(type, limit);
         }
+        this.markDirty("rsvp_limits");
         return this;
     }
 
@@ -1148,6 +1345,7 @@ public class ScheduleEntry
     public ScheduleEntry setRsvpLimits(Map<String, Integer> limits)
     {
         this.rsvpLimits = limits;
+        this.markDirty("rsvp_limits");
         return this;
     }
 
@@ -1164,15 +1362,48 @@ public class ScheduleEntry
         {
             this.rsvpMembers.put(type, members);
         }
+        this.markDirty("rsvp_members");
         return this;
     }
 
+    /**
+     * adds a member to an rsvp group, the change is written as an atomic $addToSet
+     * @return true if the member was not already in the group
+     */
+    public boolean addRsvpMember(String type, String member)
+    {
+        List<String> members = this.rsvpMembers.computeIfAbsent(type, k -> new ArrayList<>());
+        if(members.contains(member)) return false;
+        members.add(member);
+        if(!this.rsvpRemoved.getOrDefault(type, Collections.emptySet()).remove(member))
+        {
+            this.rsvpAdded.computeIfAbsent(type, k -> new HashSet<>()).add(member);
+        }
+        return true;
+    }
+
+    /**
+     * removes a member from an rsvp group, the change is written as an atomic $pull
+     * @return true if the member was in the group
+     */
+    public boolean removeRsvpMember(String type, String member)
+    {
+        List<String> members = this.rsvpMembers.get(type);
+        if(members == null || !members.remove(member)) return false;
+        if(!this.rsvpAdded.getOrDefault(type, Collections.emptySet()).remove(member))
+        {
+            this.rsvpRemoved.computeIfAbsent(type, k -> new HashSet<>()).add(member);
+        }
+        return true;
+    }
+
     /**
      * set the deadline by which members must rsvp
      */
     public ScheduleEntry setRsvpDeadline(ZonedDateTime deadline)
     {
         this.rsvpDeadline = deadline;
+        this.markDirty("deadline");
         return this;
     }
 
@@ -1182,6 +1413,7 @@ public class ScheduleEntry
     public ScheduleEntry setLocation(String location)
     {
         this.location = location;
+        this.markDirty("location");
         return this;
     }
 
@@ -1225,6 +1457,8 @@ public class ScheduleEntry
         this.announcementTimes.put(id.toString(), timeString);
         this.announcementTargets.put(id.toString(), channelId);
         this.announcementMessages.put(id.toString(), message);
+        this.markDirty("announcements", "announcement_dates", "announcement_times",
+                "announcement_targets", "announcement_messages");
         return this;
     }
 
@@ -1247,6 +1481,8 @@ public class ScheduleEntry
                 this.announcements.remove(date);
             }
         }
+        this.markDirty("announcements", "announcement_dates", "announcement_times",
+                "announcement_targets", "announcement_messages");
         return this;
     }
 
@@ -1271,9 +1507,78 @@ public class ScheduleEntry
                 this.announcementDates.put(key, Date.from(datetime.toInstant()));
             }
         }
+        this.markDirty("announcements", "announcement_dates", "announcement_times",
+                "announcement_targets", "announcement_messages");
         return this;
     }
 
+    /*
+     * modification tracking
+     */
+
+    private void markDirty(String... fields)
+    {
+        this.dirtyFields.addAll(Arrays.asList(fields));
+    }
+
+    /**
+     * @return names of the document fields which have been modified since the event was loaded or last written
+     */
+    Set<String> getDirtyFields()
+    {
+        Set<String> fields = new HashSet<>(this.dirtyFields);
+
+        // group names which cannot be used in a dotted field path require the full map to be rewritten
+        for(String type : this.rsvpAdded.keySet())
+            if(!isPathSafe(type)) fields.add("rsvp_members");
+        for(String type : this.rsvpRemoved.keySet())
+            if(!isPathSafe(type)) fields.add("rsvp_members");
+        return fields;
+    }
+
+    /**
+     * @param type rsvp group name
+     * @return true if the group name can be used in a dotted field path such as "rsvp_members.type"
+     */
+    static boolean isPathSafe(String type)
+    {
+        return !(type.contains(".") || type.startsWith("$"));
+    }
+
+    /**
+     * generates the update documents for rsvp members added and removed since the event was loaded or last written,
+     * removals and additions are kept in separate updates as they may target the same group
+     * @return list of update documents, empty if membership has not changed
+     */
+    List<Document> getRsvpUpdates()
+    {
+        List<Document> updates = new ArrayList<>();
+        Document pull = new Document();
+        this.rsvpRemoved.forEach((type, members) ->
+        {
+            if(!members.isEmpty()) pull.append("rsvp_members."+type, new Document("$in", new ArrayList<>(members)));
+        });
+        if(!pull.isEmpty()) updates.add(new Document("$pull", pull));
+
+        Document addToSet = new Document();
+        this.rsvpAdded.forEach((type, members) ->
+        {
+            if(!members.isEmpty()) addToSet.append("rsvp_members."+type, new Document("$each", new ArrayList<>(members)));
+        });
+        if(!addToSet.isEmpty()) updates.add(new Document("$addToSet", addToSet));
+        return updates;
+    }
+
+    /**
+     * marks all modifications as written
+     */
+    void clearDirtyFields()
+    {
+        this.dirtyFields.clear();
+        this.rsvpAdded.clear();
+        this.rsvpRemoved.clear();
+    }
+
     /**
      * creates string display for event comments
      */
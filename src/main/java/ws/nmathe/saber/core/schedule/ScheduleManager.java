@@ -1,12 +1,19 @@
 package ws.nmathe.saber.core.schedule;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.Guild;
-import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.exceptions.PermissionException;
+import net.dv8tion.jda.core.utils.MiscUtil;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.utils.Logging;
@@ -21,10 +28,14 @@ import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.ne;
 import static com.mongodb.client.model.Projections.fields;
 import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
 import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
 
 /**
  * Manage schedules and their settings for all guilds
@@ -33,6 +44,39 @@ public class ScheduleManager
 {
     private Set<String> locks = new HashSet<>(); // locks channels from running multiple sorts simultaneously
 
+    // bounded LRU cache of schedule settings, an empty Optional marks a channel which is not a schedule
+    private static final int SETTINGS_CACHE_SIZE = 10000;
+    private final LoadingCache<String, Optional<ScheduleSettings>> settingsCache = CacheBuilder.newBuilder()
+            .maximumSize(SETTINGS_CACHE_SIZE)
+            .recordStats()
+            .build(new CacheLoader<String, Optional<ScheduleSettings>>()
+            {
+                @Override
+                public Optional<ScheduleSettings> load(String cId)
+                {
+                    Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
+                    return settings==null ? Optional.empty() : Optional.of(new ScheduleSettings(settings));
+                }
+            });
+
+    // cache of the schedule channel IDs belonging to each guild
+    private static final int GUILD_CACHE_SIZE = 10000;
+    private final LoadingCache<String, Set<String>> guildSchedules = CacheBuilder.newBuilder()
+            .maximumSize(GUILD_CACHE_SIZE)
+            .recordStats()
+            .build(new CacheLoader<String, Set<String>>()
+            {
+                @Override
+                public Set<String> load(String gId)
+                {
+                    Set<String> schedules = new LinkedHashSet<>();
+                    Main.getDBDriver().getScheduleCollection().find(eq("guildId", gId))
+                            .projection(fields(include("_id")))
+                            .forEach((Consumer<? super Document>) document -> schedules.add(document.getString("_id")));
+                    return Collections.unmodifiableSet(schedules);
+                }
+            });
+
     public void initScheduleSync()
     {
         // every 15 minutes create a thread to check for schedules to sync
@@ -94,6 +138,7 @@ public class ScheduleManager
         Document schedule =
                 new Document("_id", cId)
                         .append("guildId", gId)
+                        .append("shardId", Main.getShardManager().getShardId(gId))
                         .append("announcement_channel", Main.getBotSettingsManager().getAnnounceChan())
                         .append("announcement_format", Main.getBotSettingsManager().getAnnounceFormat())
                         .append("clock_format", Main.getBotSettingsManager().getClockFormat())
@@ -108,6 +153,8 @@ public class ScheduleManager
                         .append("rsvp_options", default_rsvp);
 
         Main.getDBDriver().getScheduleCollection().insertOne(schedule);
+        this.invalidateSettings((String) schedule.get("_id"));
+        this.invalidateGuildSchedules((String) schedule.get("guildId"));
     }
 
 
@@ -157,6 +204,7 @@ public class ScheduleManager
         Document schedule =
                 new Document("_id", channel.getId())
                         .append("guildId", channel.getGuild().getId())
+                        .append("shardId", Main.getShardManager().getShardId(channel.getGuild().getId()))
                         .append("announcement_channel", Main.getBotSettingsManager().getAnnounceChan())
                         .append("announcement_format", Main.getBotSettingsManager().getAnnounceFormat())
                         .append("clock_format", Main.getBotSettingsManager().getClockFormat())
@@ -172,6 +220,8 @@ public class ScheduleManager
                         .append("rsvp_options", default_rsvp);
 
         Main.getDBDriver().getScheduleCollection().insertOne(schedule);
+        this.invalidateSettings((String) schedule.get("_id"));
+        this.invalidateGuildSchedules((String) schedule.get("guildId"));
     }
 
     /**
@@ -203,6 +253,8 @@ public class ScheduleManager
 
         Main.getDBDriver().getEventCollection().deleteMany(eq("channelId", cId));
         Main.getDBDriver().getScheduleCollection().deleteOne(eq("_id", cId));
+        this.invalidateSettings(cId);
+        this.invalidateGuildSchedules(doc.getString("guildId"));
     }
 
     /**
@@ -212,8 +264,7 @@ public class ScheduleManager
      */
     public boolean isASchedule(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
-        return settings != null;
+        return this.getSettings(cId) != null;
     }
 
     /**
@@ -227,11 +278,6 @@ public class ScheduleManager
         return Main.getBotSettingsManager().getMaxSchedules() < count;
     }
 
-    private long getScheduleSize(String cId)
-    {
-        return Main.getDBDriver().getScheduleCollection().count(eq("channelId",cId));
-    }
-
     /**
      * check to see if the channel is locked
      * @param cId (String) channel ID
@@ -274,7 +320,6 @@ public class ScheduleManager
      */
     public void sortSchedule(String cId, boolean reverseOrder)
     {
-        if(this.getScheduleSize(cId) > 15) return;
         if(this.isLocked(cId)) return;
 
         this.lock(cId); // lock the channel
@@ -298,50 +343,45 @@ public class ScheduleManager
             if(reverseOrder)
                 sortOrder = -1;
 
-            LinkedList<ScheduleEntry> unsortedEntries = new LinkedList<>();
-            Main.getDBDriver().getEventCollection().find(eq("channelId", cId))
-                    .sort(new Document("start", sortOrder))
-                    .forEach((Consumer<? super Document>) document -> unsortedEntries.add(new ScheduleEntry(document)));
+            // write out buffered event updates so the sort sees current start times and message IDs
+            Main.getDBDriver().getEventWriter().flush();
 
-            // selection sort the entries by timestamp
-            while (!unsortedEntries.isEmpty())
+            // entries in the order in which they should be displayed
+            List<ScheduleEntry> entries = new ArrayList<>();
+            Main.getDBDriver().getEventCollection().find(and(eq("channelId", cId), ne("messageId", null)))
+                    .sort(new Document("start", sortOrder))
+                    .forEach((Consumer<? super Document>) document -> entries.add(new ScheduleEntry(document)));
+
+            // the entries' messages ordered by creation time,
+            // snowflake IDs increase with creation time so no messages need to be retrieved
+            List<String> slots = entries.stream()
+                    .map(ScheduleEntry::getMessageId)
+                    .sorted(Comparator.comparingLong(MiscUtil::parseSnowflake))
+                    .collect(Collectors.toList());
+
+            // assign the i-th oldest message to the i-th entry
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            List<ScheduleEntry> moved = new ArrayList<>();
+            for(int i=0; i<entries.size(); i++)
             {
-                chan.sendTyping().queue();   // continue to send 'is typing'
-
-                ScheduleEntry top = unsortedEntries.pop();
-                ScheduleEntry min = top;
-                for (ScheduleEntry cur : unsortedEntries)
-                {
-                    Message minMsg = min.getMessageObject();
-                    Message topMsg = cur.getMessageObject();
-                    if(minMsg!=null && topMsg!=null)
-                    {
-                        OffsetDateTime a = minMsg.getCreationTime();
-                        OffsetDateTime b = topMsg.getCreationTime();
-                        if (a.isAfter(b))
-                        {
-                            min = cur;
-                        }
-                    }
-
-                }
-                // swap messages and update db
-                if(!(min==top))
+                ScheduleEntry se = entries.get(i);
+                String slot = slots.get(i);
+                if(!slot.equals(se.getMessageId()))
                 {
-                    Message tmp = top.getMessageObject();
-                    top.setMessageObject(min.getMessageObject());
-                    Main.getDBDriver().getEventCollection().updateOne(
-                            eq("_id", top.getId()),
-                            new Document("$set", new Document("messageId", min.getMessageObject().getId())));
-
-                    min.setMessageObject(tmp);
-                    Main.getDBDriver().getEventCollection().updateOne(
-                            eq("_id", min.getId()),
-                            new Document("$set", new Document("messageId", tmp.getId())));
+                    se.setMessageId(slot);
+                    updates.add(new UpdateOneModel<>(eq("_id", se.getId()),
+                            combine(set("messageId", slot), unset("display_hash"))));
+                    moved.add(se);
                 }
+            }
+            if(updates.isEmpty()) return;
+
+            Main.getDBDriver().getEventCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
 
-                // reload display
-                top.reloadDisplay();
+            // only messages which now display a different event need to be edited
+            for(ScheduleEntry se : moved)
+            {
+                se.reloadDisplay();
             }
         }
         catch(PermissionException e)
@@ -368,76 +408,50 @@ public class ScheduleManager
 
     public boolean isRSVPEnabled(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
-        if( settings == null )
-        {
-            return false;
-        }
-        return settings.getBoolean("rsvp_enabled", false);
+        ScheduleSettings settings = this.getSettings(cId);
+        return settings != null && settings.rsvpEnabled;
     }
 
     public boolean isRSVPConfirmationsEnabled(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
-        if( settings == null )
-        {
-            return false;
-        }
-        return settings.getBoolean("rsvp_confirmations", false);
+        ScheduleSettings settings = this.getSettings(cId);
+        return settings != null && settings.rsvpConfirmations;
     }
 
     public boolean isEndFormatOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
-        if( settings == null )
-        {
-            return false;
-        }
-
-        String format = (String) settings.get("announcement_format_end");
-        return !(format == null);
+        ScheduleSettings settings = this.getSettings(cId);
+        return settings != null && settings.endFormatOverridden;
     }
 
     public boolean isEndChannelOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
-        if( settings == null )
-        {
-            return false;
-        }
-
-        String format = (String) settings.get("announcement_channel_end");
-        return !(format == null);
+        ScheduleSettings settings = this.getSettings(cId);
+        return settings != null && settings.endChannelOverridden;
     }
 
     public boolean isRemindFormatOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
-        if( settings == null )
-        {
-            return false;
-        }
-
-        String format = (String) settings.get("reminder_format");
-        return !(format == null);
+        ScheduleSettings settings = this.getSettings(cId);
+        return settings != null && settings.remindFormatOverridden;
     }
 
     public boolean isRemindChanOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
-        if( settings == null )
-        {
-            return false;
-        }
+        ScheduleSettings settings = this.getSettings(cId);
+        return settings != null && settings.remindChanOverridden;
+    }
 
-        String format = (String) settings.get("reminder_channel");
-        return !(format == null);
+    public boolean isDigestEnabled(String cId)
+    {
+        ScheduleSettings settings = this.getSettings(cId);
+        return settings != null && settings.digest;
     }
 
     public boolean isRSVPExclusive(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
-        return settings == null || settings.getBoolean("rsvp_exclusivity", true);
+        ScheduleSettings settings = this.getSettings(cId);
+        return settings == null || settings.rsvpExclusive;
     }
 
     /*
@@ -447,314 +461,261 @@ public class ScheduleManager
 
     public List<String> getSchedulesForGuild(String gId)
     {
-        List<String> list = new ArrayList<>();
-        for (Document document : Main.getDBDriver().getScheduleCollection().find(eq("guildId", gId)))
-        {
-            list.add(document.getString("_id"));
-        }
-        return list;
+        return new ArrayList<>(this.guildSchedules.getUnchecked(gId));
+    }
+
+    /**
+     * is a channel a schedule belonging to a guild?
+     * answered from the guild schedules cache, avoids copying the guild's schedule list
+     * @param gId (String) guild ID
+     * @param cId (String) channel ID
+     * @return true if the channel is one of the guild's schedules
+     */
+    public boolean isGuildSchedule(String gId, String cId)
+    {
+        return this.guildSchedules.getUnchecked(gId).contains(cId);
     }
 
     public String getStartAnnounceChan(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceChan();
         }
-        String channel = settings.getString("announcement_channel");
-        if(channel == null)
-        {
-            return Main.getBotSettingsManager().getAnnounceChan();
-        }
-        return channel;
+        return settings.startAnnounceChan;
     }
 
     public String getStartAnnounceFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceFormat();
         }
-        String format = settings.getString("announcement_format");
-        if(format == null)
-        {
-            return Main.getBotSettingsManager().getAnnounceFormat();
-        }
-        return format;
+        return settings.startAnnounceFormat;
     }
 
     public String getEndAnnounceChan(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceChan();
         }
-        String chan = settings.getString("announcement_channel_end");
-        if(chan == null)
-        {
-            return settings.getString("announcement_channel");
-        }
-        return chan;
+        return settings.endAnnounceChan;
     }
 
     public String getEndAnnounceFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceFormat();
         }
-        String format = settings.getString("announcement_format_end");
-        if(format == null)
-        {
-            return settings.getString("announcement_format");
-        }
-        return format;
+        return settings.endAnnounceFormat;
     }
 
     public String getClockFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getClockFormat();
         }
-        String clock = settings.getString("clock_format");
-        if(clock == null)
-        {
-            return Main.getBotSettingsManager().getClockFormat();
-        }
-        return clock;
+        return settings.clockFormat;
     }
 
     public ZoneId getTimeZone(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return ZoneId.of(Main.getBotSettingsManager().getTimeZone());
         }
-        ZoneId zone = ZoneId.of(settings.getString("timezone"));
-        if(zone == null)
-        {
-            return ZoneId.of(Main.getBotSettingsManager().getTimeZone());
-        }
-        return zone;
+        return settings.timeZone;
     }
 
     public String getAddress(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return "off";
         }
-
-        String address = settings.getString("sync_address");
-        if(address == null)
-        {
-            return "off";
-        }
-        return address;
+        return settings.address;
     }
 
     public Date getSyncTime(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
-        if( settings == null )
+        ScheduleSettings settings = this.getSettings(cId);
+        if( settings == null || settings.syncTime == null )
         {
             return Date.from(ZonedDateTime.of(LocalDate.now().plusDays(1),
                     LocalTime.MIDNIGHT, ZoneId.systemDefault()).toInstant());
         }
-
-        Date syncTime = settings.getDate("sync_time");
-        if(syncTime == null)
-        {
-            return Date.from(ZonedDateTime.of(LocalDate.now().plusDays(1),
-                    LocalTime.MIDNIGHT, ZoneId.systemDefault()).toInstant());
-        }
-        return syncTime;
+        return new Date(settings.syncTime.getTime());
     }
 
-    @SuppressWarnings("unchecked")
     public List<Integer> getReminders(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return new ArrayList<>();
         }
-
-        List<Integer> reminders = (List<Integer>) settings.get("default_reminders");
-        if(reminders == null)
-        {
-            return new ArrayList<>();
-        }
-        return reminders;
+        return new ArrayList<>(settings.reminders);
     }
 
     public String getReminderChan(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceChan();
         }
-
-        String chan_name = (String) settings.get("reminder_channel");
-        if(chan_name == null )
-        {
-            return (String) settings.get("announcement_channel");
-        }
-        return chan_name;
-
+        return settings.reminderChan;
     }
 
     public String getReminderFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceFormat();
         }
-
-        String format = (String) settings.get("reminder_format");
-        if(format == null )
-        {
-            return (String) settings.get("announcement_format");
-        }
-        return format;
+        return settings.reminderFormat;
     }
 
     public String getStyle(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return "FULL";
         }
-
-        String style = (String) settings.get("display_style");
-        if(style == null)
-        {
-            return "FULL";
-        }
-        return style;
+        return settings.style;
     }
 
     public int getSyncLength(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return 7;
         }
-
-        Integer len = (Integer) settings.get("sync_length");
-        if(len == null)
-        {
-            return 7;
-        }
-        return len;
+        return settings.syncLength;
     }
 
     public String getSyncUser(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return null;
         }
-
-        String user = settings.getString("sync_user");
-        if(user == null)
-        {
-            return null;
-        }
-        return user;
+        return settings.syncUser;
     }
 
     public int getAutoSort(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return 0;
         }
-
-        Integer sort = (Integer) settings.get("auto_sort");
-        if(sort == null)
-        {
-            return 0;
-        }
-        return sort;
+        return settings.autoSort;
     }
 
     public Map<String, String> getRSVPOptions(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return new HashMap<>();
         }
-
-        Map<String, String> map = (Map) settings.get("rsvp_options");
-        if(map == null)
-        {
-            map = new LinkedHashMap<>();
-            map.put(Main.getBotSettingsManager().getYesEmoji(), "Yes");
-            map.put(Main.getBotSettingsManager().getNoEmoji(), "No");
-            map.put(Main.getBotSettingsManager().getClearEmoji(), "Undecided");
-        }
-        return map;
+        return new LinkedHashMap<>(settings.rsvpOptions);
     }
 
     public String getRSVPClear(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return "";
         }
-        String emoji = settings.getString("rsvp_clear");
-        if(emoji == null)
-        {
-            return "";
-        }
-        return emoji;
+        return settings.rsvpClear;
     }
 
     public String getRSVPLogging(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return "";
         }
-        String loggingChannel = settings.getString("rsvp_logging");
-        if(loggingChannel == null)
-        {
-            return "";
-        }
-        return loggingChannel;
+        return settings.rsvpLogging;
     }
 
     public List<Integer> getEndReminders(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        ScheduleSettings settings = this.getSettings(cId);
         if(settings == null)
         {
             return new ArrayList<>();
         }
-        List<Integer> reminders = (List<Integer>) settings.get("end_reminders");
-        if(reminders == null)
-        {
-            return new ArrayList<>();
-        }
-        return reminders ;
+        return new ArrayList<>(settings.endReminders);
+    }
+
+    /**
+     * retrieves the hit/miss statistics of the schedule settings cache
+     * @return CacheStats
+     */
+    public CacheStats getSettingsCacheStats()
+    {
+        return this.settingsCache.stats();
+    }
+
+    /**
+     * discards the cached settings of a schedule,
+     * should be used after any write to the schedule's document
+     * @param cId (String) channel ID
+     */
+    public void invalidateSettings(String cId)
+    {
+        this.settingsCache.invalidate(cId);
+    }
+
+    /**
+     * retrieves the hit/miss statistics of the guild schedules cache
+     * @return CacheStats
+     */
+    public CacheStats getGuildSchedulesCacheStats()
+    {
+        return this.guildSchedules.stats();
+    }
+
+    /**
+     * discards the cached list of schedules for a guild,
+     * should be used after a schedule is created or removed
+     * @param gId (String) guild ID
+     */
+    public void invalidateGuildSchedules(String gId)
+    {
+        if(gId == null) return;
+        this.guildSchedules.invalidate(gId);
+    }
+
+    /**
+     * retrieves the settings snapshot for a schedule from the cache,
+     * loading the schedule's document on a cache miss
+     * @param cId (String) channel ID
+     * @return ScheduleSettings or null if the channel is not a schedule
+     */
+    private ScheduleSettings getSettings(String cId)
+    {
+        if(cId == null) return null;
+        return this.settingsCache.getUnchecked(cId).orElse(null);
     }
 
     /*
@@ -767,6 +728,7 @@ public class ScheduleManager
     public void setAnnounceChan(String cId, String chan )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_channel", chan));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -775,6 +737,7 @@ public class ScheduleManager
     public void setAnnounceFormat(String cId, String format )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_format", format));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -783,6 +746,7 @@ public class ScheduleManager
     public void setEndAnnounceChan(String cId, String chan )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_channel_end", chan));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -791,6 +755,7 @@ public class ScheduleManager
     public void setEndAnnounceFormat(String cId, String format )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_format_end", format));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -799,6 +764,7 @@ public class ScheduleManager
     public void setClockFormat(String cId, String clock )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("clock_format", clock));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -807,6 +773,7 @@ public class ScheduleManager
     public void setTimeZone(String cId, ZoneId zone)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("timezone", zone.toString()));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -814,7 +781,19 @@ public class ScheduleManager
      */
     public void setAddress(String cId, String address)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_address", address));
+        // the sync token of the previous address can not be used for the new address
+        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId),
+                combine(set("sync_address", address), unset("sync_token"), unset("sync_horizon")));
+        this.invalidateSettings(cId);
+    }
+
+    /**
+     * Sets the discord user whose google credentials are used to synchronize the schedule
+     */
+    public void setSyncUser(String cId, String userId)
+    {
+        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_user", userId));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -823,6 +802,7 @@ public class ScheduleManager
     public void setSyncTime(String cId, Date syncTime)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_time", syncTime));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -831,6 +811,7 @@ public class ScheduleManager
     public void setReminders(String cId, List<Integer> reminders)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("default_reminders", reminders));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -847,6 +828,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("end_reminders", reminders));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -855,6 +837,7 @@ public class ScheduleManager
     public void setReminderChan(String cId, String chan )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("reminder_channel", chan));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -863,6 +846,7 @@ public class ScheduleManager
     public void setReminderFormat(String cId, String format )
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("reminder_format", format));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -871,6 +855,7 @@ public class ScheduleManager
     public void setRSVPEnable(String cId, boolean value)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("rsvp_enabled", value));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -881,6 +866,7 @@ public class ScheduleManager
     public void setStyle(String cId, String style)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("display_style", style));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -888,7 +874,28 @@ public class ScheduleManager
      */
     public void setSyncLength(String cId, int len)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_length", len));
+        // the next sync must be a full sync to cover the new span of days
+        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId),
+                combine(set("sync_length", len), unset("sync_token"), unset("sync_horizon")));
+        this.invalidateSettings(cId);
+    }
+
+    /**
+     * Records the google calendar sync token of a schedule's last sync, and the end of the span of time the sync covered
+     * The next sync of the schedule requests only the calendar events which have changed since the token was issued
+     */
+    public void setSyncToken(String cId, String token, Date horizon)
+    {
+        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId),
+                combine(set("sync_token", token), set("sync_horizon", horizon)));
+    }
+
+    /**
+     * Sets the time at which a synced schedule should next check it's calendar for changes
+     */
+    public void setSyncCheck(String cId, Date checkTime)
+    {
+        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_check", checkTime));
     }
 
     /**
@@ -898,6 +905,7 @@ public class ScheduleManager
     public void setAutoSort(String cId, int type)
     {
         Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("auto_sort", type));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -914,6 +922,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_options", options));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -930,6 +939,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_clear", emoji));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -946,6 +956,16 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_exclusivity", bool));
         }
+        this.invalidateSettings(cId);
+    }
+
+    /**
+     * Sets whether or not a schedule combines announcements and reminders which are sent at the same time
+     */
+    public void setDigest(String cId, Boolean bool)
+    {
+        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("digest", bool));
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -962,6 +982,7 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_confirmations", bool));
         }
+        this.invalidateSettings(cId);
     }
 
     /**
@@ -978,5 +999,6 @@ public class ScheduleManager
         {
             Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_logging", channelIdentifier));
         }
+        this.invalidateSettings(cId);
     }
 }
@@ -0,0 +1,116 @@
+package ws.nmathe.saber.core.schedule;
+
+import org.bson.Document;
+import ws.nmathe.saber.Main;
+
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * Immutable snapshot of a schedule's settings document
+ * Used by the ScheduleManager to answer settings lookups without a database round trip,
+ * default values are resolved once when the snapshot is created
+ */
+@SuppressWarnings("unchecked")
+final class ScheduleSettings
+{
+    final String guildId;
+
+    // announcements
+    final String startAnnounceChan;
+    final String startAnnounceFormat;
+    final String endAnnounceChan;
+    final String endAnnounceFormat;
+    final boolean endFormatOverridden;
+    final boolean endChannelOverridden;
+
+    // reminders
+    final List<Integer> reminders;
+    final List<Integer> endReminders;
+    final String reminderChan;
+    final String reminderFormat;
+    final boolean remindFormatOverridden;
+    final boolean remindChanOverridden;
+    final boolean digest;           // combine messages sent to the same channel at the same time
+
+    // display
+    final String clockFormat;
+    final ZoneId timeZone;
+    final String style;
+    final int autoSort;
+
+    // sync
+    final String address;
+    final Date syncTime;           // may be null
+    final int syncLength;
+    final String syncUser;         // may be null
+
+    // rsvp
+    final boolean rsvpEnabled;
+    final boolean rsvpConfirmations;
+    final boolean rsvpExclusive;
+    final Map<String, String> rsvpOptions;
+    final String rsvpClear;
+    final String rsvpLogging;
+
+    ScheduleSettings(Document settings)
+    {
+        this.guildId = settings.getString("guildId");
+
+        String announceChan = settings.getString("announcement_channel");
+        String announceFormat = settings.getString("announcement_format");
+        String endChan = settings.getString("announcement_channel_end");
+        String endFormat = settings.getString("announcement_format_end");
+        this.startAnnounceChan = announceChan==null ? Main.getBotSettingsManager().getAnnounceChan() : announceChan;
+        this.startAnnounceFormat = announceFormat==null ? Main.getBotSettingsManager().getAnnounceFormat() : announceFormat;
+        this.endAnnounceChan = endChan==null ? announceChan : endChan;
+        this.endAnnounceFormat = endFormat==null ? announceFormat : endFormat;
+        this.endFormatOverridden = endFormat != null;
+        this.endChannelOverridden = endChan != null;
+
+        List<Integer> reminders = (List<Integer>) settings.get("default_reminders");
+        List<Integer> endReminders = (List<Integer>) settings.get("end_reminders");
+        String remindChan = settings.getString("reminder_channel");
+        String remindFormat = settings.getString("reminder_format");
+        this.reminders = Collections.unmodifiableList(reminders==null ? new ArrayList<>() : new ArrayList<>(reminders));
+        this.endReminders = Collections.unmodifiableList(endReminders==null ? new ArrayList<>() : new ArrayList<>(endReminders));
+        this.reminderChan = remindChan==null ? announceChan : remindChan;
+        this.reminderFormat = remindFormat==null ? announceFormat : remindFormat;
+        this.remindFormatOverridden = remindFormat != null;
+        this.remindChanOverridden = remindChan != null;
+        this.digest = settings.getBoolean("digest", false);
+
+        String clock = settings.getString("clock_format");
+        String zone = settings.getString("timezone");
+        String style = settings.getString("display_style");
+        Integer sort = settings.getInteger("auto_sort");
+        this.clockFormat = clock==null ? Main.getBotSettingsManager().getClockFormat() : clock;
+        this.timeZone = ZoneId.of(zone==null ? Main.getBotSettingsManager().getTimeZone() : zone);
+        this.style = style==null ? "FULL" : style;
+        this.autoSort = sort==null ? 0 : sort;
+
+        String address = settings.getString("sync_address");
+        Integer len = settings.getInteger("sync_length");
+        this.address = address==null ? "off" : address;
+        this.syncTime = settings.getDate("sync_time");
+        this.syncLength = len==null ? 7 : len;
+        this.syncUser = settings.getString("sync_user");
+
+        Map<String, String> options = (Map<String, String>) settings.get("rsvp_options");
+        if(options == null)
+        {
+            options = new LinkedHashMap<>();
+            options.put(Main.getBotSettingsManager().getYesEmoji(), "Yes");
+            options.put(Main.getBotSettingsManager().getNoEmoji(), "No");
+            options.put(Main.getBotSettingsManager().getClearEmoji(), "Undecided");
+        }
+        String clear = settings.getString("rsvp_clear");
+        String logging = settings.getString("rsvp_logging");
+        this.rsvpEnabled = settings.getBoolean("rsvp_enabled", false);
+        this.rsvpConfirmations = settings.getBoolean("rsvp_confirmations", false);
+        this.rsvpExclusive = settings.getBoolean("rsvp_exclusivity", true);
+        this.rsvpOptions = Collections.unmodifiableMap(new LinkedHashMap<>(options));
+        this.rsvpClear = clear==null ? "" : clear;
+        this.rsvpLogging = logging==null ? "" : logging;
+    }
+}
@@ -7,6 +7,7 @@ import net.dv8tion.jda.core.entities.TextChannel;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ExecutorManager;
 import ws.nmathe.saber.core.google.GoogleAuth;
 import ws.nmathe.saber.core.settings.GuildSettingsManager;
 import ws.nmathe.saber.utils.Logging;
@@ -15,35 +16,39 @@ import ws.nmathe.saber.utils.MessageUtilities;
 import java.time.ZonedDateTime;
 import java.util.Date;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Projections.fields;
 import static com.mongodb.client.model.Projections.include;
-import static com.mongodb.client.model.Updates.set;
 import static ws.nmathe.saber.Main.getGuildSettingsManager;
 
 /**
  * Thread used to resync schedules once a day if that schedule
  * is configured to sync to a google calendar address.
- * If the sync fails, the schedule's sync configuration is reset
+ * If the sync fails, the schedule's sync configuration is reset.
+ * Between the daily syncs, synced schedules are checked for calendar changes every hour
+ * (incremental syncs only request the calendar events which have changed)
  */
 class ScheduleSyncer implements Runnable
 {
     // thread pool for sync jobs
-    private static ExecutorService executor = Executors.newCachedThreadPool();
+    private static ExecutorService executor = Main.getExecutorManager().get(ExecutorManager.pool.SYNC);
+
+    private static final long CHECK_INTERVAL = 60*60*1000;  // milliseconds between checks for calendar changes
 
     public void run()
     {
         Logging.info(this.getClass(), "Running schedule syncer. . .");
+        Date now = new Date();
         Bson query = and(
+                        Main.getShardManager().getShardFilter(),
                         ne("sync_address", "off"),
-                        lte("sync_time", new Date()));
+                        or(lte("sync_time", now), lte("sync_check", now)));
 
         Main.getDBDriver().getScheduleCollection()
                 .find(query)
-                .projection(fields(include("_id", "sync_time", "sync_address","sync_user", "guildId")))
+                .projection(fields(include("_id", "sync_time", "sync_check", "sync_address","sync_user", "guildId")))
                 .forEach((Consumer<? super Document>) document ->
         {
             executor.execute(() ->
@@ -60,13 +65,19 @@ class ScheduleSyncer implements Runnable
 
                     String scheduleId = document.getString("_id");
 
-                    // add one day to sync_time
-                    Date syncTime = Date.from(ZonedDateTime.ofInstant(document.getDate("sync_time").toInstant(),
-                            Main.getScheduleManager().getTimeZone(scheduleId)).plusDays(1).toInstant());
+                    // the daily sync is due, otherwise this is a check for calendar changes
+                    Date syncTime = document.getDate("sync_time");
+                    boolean daily = syncTime != null && !syncTime.after(now);
+                    if(daily)
+                    {
+                        // add one day to sync_time
+                        syncTime = Date.from(ZonedDateTime.ofInstant(syncTime.toInstant(),
+                                Main.getScheduleManager().getTimeZone(scheduleId)).plusDays(1).toInstant());
 
-                    // update schedule document with next sync time
-                    Main.getDBDriver().getScheduleCollection()
-                            .updateOne(eq("_id", scheduleId), set("sync_time", syncTime));
+                        // update schedule document with next sync time
+                        Main.getScheduleManager().setSyncTime(scheduleId, syncTime);
+                    }
+                    Main.getScheduleManager().setSyncCheck(scheduleId, new Date(now.getTime() + CHECK_INTERVAL));
 
                     // get the sync address and google credentials, then create the calendar service
                     String address = document.getString("sync_address");
@@ -77,8 +88,8 @@ class ScheduleSyncer implements Runnable
                     TextChannel channel = jda.getTextChannelById(document.getString("_id"));
                     if(channel == null) return;
 
-                    // attempt to sync schedule
-                    if(Main.getCalendarConverter().checkValidAddress(address, service))
+                    // attempt to sync schedule, the address is only verified by the daily sync
+                    if(!daily || Main.getCalendarConverter().checkValidAddress(address, service))
                     {
                         Main.getCalendarConverter().importCalendar(address, channel, service);
                         Logging.info(this.getClass(), "Synchronized schedule #" + channel.getName() + " [" +
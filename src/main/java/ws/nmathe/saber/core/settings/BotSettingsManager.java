@@ -22,7 +22,7 @@ public class BotSettingsManager
 
     /**
      * attempts to read the settings file,
-     * on failure, generate a new default file
+     * on failure no settings are loaded (see generateFile)
      */
     public BotSettingsManager()
     {
@@ -34,7 +34,6 @@ public class BotSettingsManager
         }
         catch (IOException ex)
         {
-            this.generateFile();
             settings = null;
         }
         finally
@@ -54,9 +53,10 @@ public class BotSettingsManager
     }
 
     /**
-     * write out to file a new toml file with default settings
+     * write out to file a new toml file with default settings,
+     * used on startup when no settings file could be read
      */
-    private void generateFile()
+    public void generateFile()
     {
         OutputStream output = null;
         try
@@ -148,6 +148,7 @@ public class BotSettingsManager
         int log_level;
         List<Integer> shards;
         int shard_total;
+        int identify_concurrency;
 
         BotSettings()
         {
@@ -160,6 +161,7 @@ public class BotSettingsManager
 
             shards = new ArrayList<>();
             shard_total = 0;
+            identify_concurrency = 1;
 
             prefix = "!";
             admin_prefix = "s.";
@@ -307,4 +309,13 @@ public class BotSettingsManager
     {
         return settings.shard_total;
     }
+
+    /**
+     * @return number of shards which may log in at once, shards whose IDs are equal modulo this value
+     *         share an identify bucket and log in one at a time
+     */
+    public int getIdentifyConcurrency()
+    {
+        return Math.max(1, settings.identify_concurrency);
+    }
 }
@@ -1,9 +1,14 @@
 package ws.nmathe.saber.core.settings;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Updates.set;
@@ -13,12 +18,55 @@ import static com.mongodb.client.model.Updates.set;
  */
 public class GuildSettingsManager
 {
+    // bounded LRU cache of guild settings, kept so that ordinary chat messages need no database lookups
+    private static final int SETTINGS_CACHE_SIZE = 10000;
+    private final LoadingCache<String, GuildSettings> settingsCache = CacheBuilder.newBuilder()
+            .maximumSize(SETTINGS_CACHE_SIZE)
+            .recordStats()
+            .build(new CacheLoader<String, GuildSettings>()
+            {
+                @Override
+                public GuildSettings load(String guildId)
+                {
+                    return loadGuildSettings(guildId);
+                }
+            });
+
     /**
      * retrieves the guild settings object for a guild
      * @param guildId ID of guild
      * @return GuildSettings object (never null)
      */
     public GuildSettings getGuildSettings(String guildId)
+    {
+        return this.settingsCache.getUnchecked(guildId);
+    }
+
+    /**
+     * discards the cached settings of a guild,
+     * should be used after any write to the guild's document
+     * @param guildId ID of guild
+     */
+    public void invalidateSettings(String guildId)
+    {
+        this.settingsCache.invalidate(guildId);
+    }
+
+    /**
+     * retrieves the hit/miss statistics of the guild settings cache
+     * @return CacheStats
+     */
+    public CacheStats getSettingsCacheStats()
+    {
+        return this.settingsCache.stats();
+    }
+
+    /**
+     * reads the guild document from the database, creating it if the guild has none
+     * @param guildId ID of guild
+     * @return GuildSettings object (never null)
+     */
+    private GuildSettings loadGuildSettings(String guildId)
     {
         Document guildDoc = Main.getDBDriver().getGuildCollection().find(eq("_id", guildId)).first();
 
@@ -55,7 +103,8 @@ public class GuildSettingsManager
             guildId = guildDocument.getString("_id");
             commandPrefix = guildDocument.getString("prefix");
             commandChannelId = guildDocument.get("command_channel") != null ? guildDocument.getString("command_channel") : null;
-            unrestrictedCommands = (ArrayList<String>) guildDocument.get("unrestricted_commands");
+            List<String> commands = (List<String>) guildDocument.get("unrestricted_commands");
+            unrestrictedCommands = commands==null ? new ArrayList<>() : new ArrayList<>(commands);
         }
 
         // **** getters ****
@@ -72,7 +121,7 @@ public class GuildSettingsManager
 
         public ArrayList<String> getUnrestrictedCommands()
         {
-            return unrestrictedCommands;
+            return new ArrayList<>(unrestrictedCommands);
         }
 
         public ArrayList<String> getRestrictedCommands()
@@ -87,12 +136,14 @@ public class GuildSettingsManager
         public void setPrefix(String prefix)
         {
             Main.getDBDriver().getGuildCollection().updateOne(eq("_id", guildId), set("prefix", prefix));
+            Main.getGuildSettingsManager().invalidateSettings(guildId);
             this.commandPrefix = prefix;
         }
 
         public void setCommandChannelId(String channelId)
         {
             Main.getDBDriver().getGuildCollection().updateOne(eq("_id", guildId), set("command_channel", channelId));
+            Main.getGuildSettingsManager().invalidateSettings(guildId);
             this.commandChannelId = channelId;
         }
 
@@ -100,7 +151,8 @@ public class GuildSettingsManager
         {
             Main.getDBDriver().getGuildCollection().updateOne(eq("_id", guildId),
                     set("unrestricted_commands", unrestrictedCommands));
-            this.unrestrictedCommands = unrestrictedCommands;
+            Main.getGuildSettingsManager().invalidateSettings(guildId);
+            this.unrestrictedCommands = new ArrayList<>(unrestrictedCommands);
         }
 
     }
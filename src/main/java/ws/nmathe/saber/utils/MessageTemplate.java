@@ -0,0 +1,496 @@
+package ws.nmathe.saber.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.commons.lang3.StringUtils;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.schedule.ScheduleEntry;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A message format string compiled into a list of literal text and placeholder nodes
+ * Compiled templates are immutable and are cached by their format string, so the format of a schedule's
+ * announcements and reminders is parsed once and each announcement only walks the node list.
+ * The syntax is the same as understood by ParsingUtilities.parseMessageFormat(), advanced %{..}
+ * placeholders are substituted first and the text they insert is then parsed for legacy % tokens.
+ */
+public class MessageTemplate
+{
+    private static final Pattern ADVANCED = Pattern.compile("%\\{(.*?)}");
+    private static final Pattern BRACKETS = Pattern.compile("\\[.*?]");
+    private static final DateTimeFormatter CLOCK_12 = DateTimeFormatter.ofPattern("hh:mm a");
+    private static final DateTimeFormatter CLOCK_24 = DateTimeFormatter.ofPattern("HH:mm");
+
+    private static final int CACHE_SIZE = 10000;
+    private static final Cache<String, MessageTemplate> templates = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .recordStats()
+            .build();
+    // text inserted by advanced placeholders is only parsed for legacy tokens
+    private static final Cache<String, MessageTemplate> fragments = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .build();
+
+    private final Node[] nodes;
+    private final boolean usesClock;    // if the schedule's clock format is needed to render
+    private final int sizeHint;
+
+    private MessageTemplate(List<Node> nodes, boolean usesClock, int sizeHint)
+    {
+        this.nodes = nodes.toArray(new Node[nodes.size()]);
+        this.usesClock = usesClock;
+        this.sizeHint = sizeHint;
+    }
+
+    /**
+     * retrieves the compiled template for a format string, compiling it if it is not cached
+     * @param format the message format string
+     * @return immutable compiled template
+     */
+    public static MessageTemplate compile(String format)
+    {
+        MessageTemplate template = templates.getIfPresent(format);
+        if(template == null)
+        {
+            template = parseAdvanced(format);
+            templates.put(format, template);
+        }
+        return template;
+    }
+
+    /**
+     * retrieves the hit/miss statistics of the compiled template cache
+     * @return CacheStats
+     */
+    public static CacheStats getCacheStats()
+    {
+        return templates.stats();
+    }
+
+    /**
+     * generates the message for an entry
+     * @param entry the entry associated with the message
+     * @param displayComments if comment tokens should insert the entry's comments
+     * @return a new message which has entry specific information inserted
+     */
+    public String render(ScheduleEntry entry, boolean displayComments)
+    {
+        DateTimeFormatter clock = null;
+        if(this.usesClock)
+        {
+            clock = Main.getScheduleManager().getClockFormat(entry.getChannelId()).equalsIgnoreCase("12") ?
+                    CLOCK_12 : CLOCK_24;
+        }
+        StringBuilder builder = new StringBuilder(this.sizeHint);
+        this.render(entry, displayComments, clock, builder);
+        return builder.toString();
+    }
+
+    private void render(ScheduleEntry entry, boolean displayComments, DateTimeFormatter clock, StringBuilder builder)
+    {
+        for(Node node : this.nodes)
+        {
+            node.render(entry, displayComments, clock, builder);
+        }
+    }
+
+    /**
+     * a single element of a compiled template
+     */
+    private interface Node
+    {
+        void render(ScheduleEntry entry, boolean displayComments, DateTimeFormatter clock, StringBuilder builder);
+    }
+
+    /*
+     * compilation
+     */
+
+    /**
+     * splits a format string on its advanced placeholders, the text between them is parsed for legacy tokens
+     */
+    private static MessageTemplate parseAdvanced(String format)
+    {
+        List<Node> nodes = new ArrayList<>();
+        boolean usesClock = false;
+        int last = 0;
+        Matcher matcher = ADVANCED.matcher(format);
+        while(matcher.find())
+        {
+            usesClock |= parseLegacy(format.substring(last, matcher.start()), nodes);
+            Node node = advancedNode(matcher.group(1));
+            if(node != null)
+            {
+                nodes.add(node);
+                usesClock = true;   // the inserted text may contain time tokens
+            }
+            last = matcher.end();
+        }
+        usesClock |= parseLegacy(format.substring(last), nodes);
+        return new MessageTemplate(nodes, usesClock, format.length()+32);
+    }
+
+    /**
+     * creates the node for the contents of an advanced placeholder
+     * @return null if the placeholder never inserts anything
+     */
+    private static Node advancedNode(String trimmed)
+    {
+        if(trimmed.isEmpty()) return null;
+
+        // text of each [..] group with its brackets removed
+        List<String> brackets = new ArrayList<>();
+        Matcher matcher = BRACKETS.matcher(trimmed);
+        while(matcher.find())
+        {
+            brackets.add(matcher.group().replaceAll("[\\[\\]]", ""));
+        }
+        String prefix = brackets.size() > 0 ? brackets.get(0) : "";
+        String suffix = brackets.size() > 1 ? brackets.get(1) : "";
+        String all = String.join("", brackets);
+
+        if(trimmed.matches("(\\[.*?])?c\\d+(\\[.*?])?")) // advanced comment
+        {
+            int i;
+            try
+            {
+                i = Integer.parseInt(trimmed.replaceAll("(\\[.*?])?c|\\[.*?]", ""));
+            }
+            catch(NumberFormatException e)
+            {
+                return null;
+            }
+            return (entry, displayComments, clock, builder) ->
+            {
+                if(displayComments && entry.getComments().size() >= i && i > 0)
+                {
+                    appendParsed(prefix + entry.getComments().get(i-1) + suffix, entry, displayComments, clock, builder);
+                }
+            };
+        }
+        else if(trimmed.matches("(\\[.*?])?s(\\[.*?])?")) // advanced start
+        {
+            return (entry, displayComments, clock, builder) ->
+            {
+                if(!entry.hasStarted()) appendParsed(all, entry, displayComments, clock, builder);
+            };
+        }
+        else if(trimmed.matches("(\\[.*?])?e(\\[.*?])?")) // advanced end
+        {
+            return (entry, displayComments, clock, builder) ->
+            {
+                if(entry.hasStarted()) appendParsed(all, entry, displayComments, clock, builder);
+            };
+        }
+        else if(trimmed.matches("(\\[.*?])?m(\\[.*?])?")) // advanced remind in minutes
+        {
+            return (entry, displayComments, clock, builder) ->
+            {
+                long minutes = minutesUntil(entry);
+                if(minutes>0)
+                {
+                    appendParsed(prefix + (minutes+1) + suffix, entry, displayComments, clock, builder);
+                }
+            };
+        }
+        else if(trimmed.matches("(\\[.*?])?h(\\[.*?])?")) // advanced remind in hours
+        {
+            return (entry, displayComments, clock, builder) ->
+            {
+                long minutes = minutesUntil(entry);
+                if(minutes>0)
+                {
+                    appendParsed(prefix + (minutes+1)/60 + suffix, entry, displayComments, clock, builder);
+                }
+            };
+        }
+        else if(trimmed.matches("(\\[.*?])?rsvp .+(\\[.*?])?")) // rsvp count
+        {
+            String name = trimmed.replaceAll("rsvp ","").replaceAll("\\[.*?]","");
+            return (entry, displayComments, clock, builder) ->
+            {
+                List<String> members = entry.getRsvpMembers().get(name);
+                if(members != null)
+                {
+                    appendParsed(prefix + members.size() + suffix, entry, displayComments, clock, builder);
+                }
+            };
+        }
+        else if(trimmed.matches("(\\[.*?])?mention .+(\\[.*?])?")) // rsvp mentions
+        {
+            String name = trimmed.replaceAll("mention ","").replaceAll("\\[.*?]","");
+            return (entry, displayComments, clock, builder) ->
+            {
+                if(entry.getRsvpMembers().get(name) != null)
+                {
+                    StringBuilder userMentions = new StringBuilder();
+                    List<String> users = entry.getRsvpMembersOfType(name);
+                    for(int i=0; i<users.size(); i++)
+                    {
+                        if (isSnowflake(users.get(i)))
+                            userMentions.append("<@").append(users.get(i)).append(">");
+                        if (!(i+1<users.size()))
+                            userMentions.append(" ");
+                    }
+                    appendParsed(prefix + userMentions + suffix, entry, displayComments, clock, builder);
+                }
+            };
+        }
+        else if(trimmed.matches("(\\[.*?])?u(\\[.*?])?")) // advanced title url
+        {
+            return (entry, displayComments, clock, builder) ->
+            {
+                if(entry.getTitleUrl() != null)
+                {
+                    appendParsed(prefix + entry.getTitleUrl() + suffix, entry, displayComments, clock, builder);
+                }
+            };
+        }
+        else if(trimmed.matches("(\\[.*?])?v(\\[.*?])?")) // advanced image url
+        {
+            return (entry, displayComments, clock, builder) ->
+            {
+                if(entry.getImageUrl() != null)
+                {
+                    appendParsed(prefix + entry.getImageUrl() + suffix, entry, displayComments, clock, builder);
+                }
+            };
+        }
+        else if(trimmed.matches("(\\[.*?])?w(\\[.*?])?")) // advanced thumbnail url
+        {
+            return (entry, displayComments, clock, builder) ->
+            {
+                if(entry.getThumbnailUrl() != null)
+                {
+                    appendParsed(prefix + entry.getThumbnailUrl() + suffix, entry, displayComments, clock, builder);
+                }
+            };
+        }
+        return null;
+    }
+
+    /**
+     * parses text character by character looking for % characters,
+     * a token is one % character followed by a key character
+     * @return true if a token which depends on the clock format was found
+     */
+    private static boolean parseLegacy(String format, List<Node> nodes)
+    {
+        boolean usesClock = false;
+        StringBuilder literal = new StringBuilder();
+        for(int i = 0; i < format.length(); i++)
+        {
+            char ch = format.charAt(i);
+            if(ch != '%' || i+1 >= format.length())
+            {
+                literal.append(ch);
+                continue;
+            }
+
+            i++;
+            ch = format.charAt(i);
+            Node node = null;
+            switch(ch)
+            {
+                case 'c' :
+                    if(i+1 < format.length() && Character.isDigit(format.charAt(i+1)))
+                    {
+                        i++;
+                        char digit = format.charAt(i);
+                        int x = Character.digit(digit, 10);
+                        node = (entry, displayComments, clock, builder) ->
+                        {
+                            if(!displayComments)
+                            {
+                                // the digit is not part of the token when comments are not displayed
+                                builder.append(digit);
+                            }
+                            else if(entry.getComments().size()>=x && x!=0)
+                            {
+                                compile(entry.getComments().get(x-1)).render(entry, false, clock, builder);
+                            }
+                        };
+                        usesClock = true;
+                    }
+                    break;
+                case 'f' :
+                    node = (entry, displayComments, clock, builder) ->
+                    {
+                        if(displayComments)
+                        {
+                            for(String comment : entry.getComments())
+                            {
+                                compile(comment).render(entry, false, clock, builder);
+                                builder.append("\n");
+                            }
+                        }
+                    };
+                    usesClock = true;
+                    break;
+                case 'a' :
+                    node = (entry, displayComments, clock, builder) ->
+                    {
+                        builder.append(entry.hasStarted() ? "ends" : "begins");
+                        appendUntil(entry, builder);
+                    };
+                    break;
+                case 'b' :
+                    node = (entry, displayComments, clock, builder) ->
+                            builder.append(entry.hasStarted() ? "ends" : "begins");
+                    break;
+                case 'x' :
+                    node = (entry, displayComments, clock, builder) -> appendUntil(entry, builder);
+                    break;
+                case 's':
+                    node = (entry, displayComments, clock, builder) -> builder.append(entry.getStart().format(clock));
+                    usesClock = true;
+                    break;
+                case 'e':
+                    node = (entry, displayComments, clock, builder) -> builder.append(entry.getEnd().format(clock));
+                    usesClock = true;
+                    break;
+                case 't' :
+                    node = (entry, displayComments, clock, builder) -> builder.append(entry.getTitle());
+                    break;
+                case 'd' :
+                    node = (entry, displayComments, clock, builder) ->
+                            appendTwoDigits(entry.getStart().getDayOfMonth(), builder);
+                    break;
+                case 'D' :
+                    node = (entry, displayComments, clock, builder) ->
+                            builder.append(StringUtils.capitalize(entry.getStart().getDayOfWeek().toString()));
+                    break;
+                case 'm' :
+                    node = (entry, displayComments, clock, builder) ->
+                            appendTwoDigits(entry.getStart().getMonthValue(), builder);
+                    break;
+                case 'M' :
+                    node = (entry, displayComments, clock, builder) ->
+                            builder.append(StringUtils.capitalize(entry.getStart().getMonth().toString()));
+                    break;
+                case 'y' :
+                    node = (entry, displayComments, clock, builder) -> builder.append(entry.getStart().getYear());
+                    break;
+                case 'i':
+                    node = (entry, displayComments, clock, builder) ->
+                            builder.append(ParsingUtilities.intToEncodedID(entry.getId()));
+                    break;
+                case '%' :
+                    literal.append('%');
+                    break;
+                case 'u' :
+                    node = (entry, displayComments, clock, builder) ->
+                            builder.append(entry.getTitleUrl() == null ? "" : entry.getTitleUrl());
+                    break;
+                case 'v' :
+                    node = (entry, displayComments, clock, builder) ->
+                            builder.append(entry.getImageUrl() == null ? "" : entry.getImageUrl());
+                    break;
+                case 'w':
+                    node = (entry, displayComments, clock, builder) ->
+                            builder.append(entry.getThumbnailUrl() == null ? "" : entry.getThumbnailUrl());
+                    break;
+                case 'n':
+                    literal.append("\n");
+                    break;
+                case 'h':
+                    node = (entry, displayComments, clock, builder) ->
+                            appendTwoDigits(entry.getStart().getHour(), builder);
+                    break;
+                case 'k':
+                    node = (entry, displayComments, clock, builder) ->
+                            appendTwoDigits(entry.getStart().getMinute(), builder);
+                    break;
+                case 'l':
+                    node = (entry, displayComments, clock, builder) -> builder.append(entry.getLocation());
+                    break;
+            }
+
+            if(node != null)
+            {
+                flushLiteral(literal, nodes);
+                nodes.add(node);
+            }
+        }
+        flushLiteral(literal, nodes);
+        return usesClock;
+    }
+
+    private static void flushLiteral(StringBuilder literal, List<Node> nodes)
+    {
+        if(literal.length() == 0) return;
+        String text = literal.toString();
+        nodes.add((entry, displayComments, clock, builder) -> builder.append(text));
+        literal.setLength(0);
+    }
+
+    /*
+     * rendering helpers
+     */
+
+    /**
+     * appends text inserted by an advanced placeholder, parsing it for legacy tokens
+     */
+    private static void appendParsed(String text, ScheduleEntry entry, boolean displayComments,
+                                     DateTimeFormatter clock, StringBuilder builder)
+    {
+        if(text.indexOf('%') < 0)
+        {
+            builder.append(text);
+            return;
+        }
+        MessageTemplate fragment = fragments.getIfPresent(text);
+        if(fragment == null)
+        {
+            List<Node> nodes = new ArrayList<>();
+            parseLegacy(text, nodes);
+            fragment = new MessageTemplate(nodes, true, text.length());
+            fragments.put(text, fragment);
+        }
+        fragment.render(entry, displayComments, clock, builder);
+    }
+
+    /**
+     * minutes until the entry starts, or until it ends if it has already started
+     */
+    private static long minutesUntil(ScheduleEntry entry)
+    {
+        return ZonedDateTime.now().until(entry.hasStarted() ? entry.getEnd() : entry.getStart(), ChronoUnit.MINUTES);
+    }
+
+    private static void appendUntil(ScheduleEntry entry, StringBuilder builder)
+    {
+        long minutes = minutesUntil(entry);
+        if(minutes>0)
+        {
+            if(minutes > 120)
+                builder.append(" in ").append((minutes + 1) / 60).append(" hours");
+            else
+                builder.append(" in ").append(minutes + 1).append(" minutes");
+        }
+    }
+
+    private static void appendTwoDigits(int value, StringBuilder builder)
+    {
+        if(value < 10) builder.append('0');
+        builder.append(value);
+    }
+
+    private static boolean isSnowflake(String str)
+    {
+        if(str.isEmpty()) return false;
+        for(int i=0; i<str.length(); i++)
+        {
+            if(str.charAt(i) < '0' || str.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+}
@@ -4,13 +4,16 @@ import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.exceptions.PermissionException;
+import net.dv8tion.jda.core.requests.RestAction;
 
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * A collection of method wrappers for sending different types of messages to specific channels
  * Consumer may be passed into functions to operate on the result of the RestAction, exceptions
  * are caught and printed to stdout
+ * Non-blocking requests are sent through the RequestQueue, command replies are the default priority
  */
 public class MessageUtilities
 {
@@ -24,45 +27,21 @@ public class MessageUtilities
      */
     public static void sendMsg(String content, MessageChannel chan, Consumer<Message> action )
     {
-        if(content.isEmpty()) return;
+        sendMsg(content, chan, RequestQueue.priority.COMMAND, action);
+    }
 
-        try
-        {
-            chan.sendMessage(content).queue(action, e ->
-            {
-                if (!(e instanceof PermissionException))
-                {
-                    Logging.exception(MessageUtilities.class, e);
-                }
-            });
-        }
-        catch( PermissionException ignored) { }
-        catch( Exception e)
-        {
-            Logging.exception(MessageUtilities.class, e);
-        }
+    /// version which sends with a specific priority
+    public static void sendMsg(String content, MessageChannel chan, RequestQueue.priority priority, Consumer<Message> action )
+    {
+        if(content.isEmpty()) return;
+        queue(chan, priority, () -> chan.sendMessage(content), action);
     }
 
     /// version which takes a message rather than a string
     public static void sendMsg(Message message, MessageChannel chan, Consumer<Message> action )
     {
         if(message.getContent().isEmpty() && message.getEmbeds().isEmpty()) return;
-
-        try
-        {
-            chan.sendMessage(message).queue(action, e ->
-            {
-                if(!(e instanceof PermissionException))
-                {
-                    Logging.exception(MessageUtilities.class, e);
-                }
-            });
-        }
-        catch( PermissionException ignored) { }
-        catch(Exception e)
-        {
-            Logging.warn(MessageUtilities.class, e.getMessage());
-        }
+        queue(chan, RequestQueue.priority.COMMAND, () -> chan.sendMessage(message), action);
     }
 
     /// customizable error handling (used by list command temporarily)
@@ -70,14 +49,12 @@ public class MessageUtilities
     {
         if(message.getContent().isEmpty() && message.getEmbeds().isEmpty()) return;
 
-        try
-        {
-            chan.sendMessage(message).queue(action, error);
-        }
-        catch(Exception e)
-        {
-            Logging.warn(MessageUtilities.class, e.getMessage());
-        }
+        RequestQueue.submit(chan.getId(), RequestQueue.priority.COMMAND, () -> chan.sendMessage(message))
+                .whenComplete((msg, e) ->
+                {
+                    if(e == null && action != null) action.accept(msg);
+                    else if(e != null && error != null) error.accept(e);
+                });
     }
 
     /// blocking version
@@ -131,21 +108,8 @@ public class MessageUtilities
     {
         if (newMsg.getContent().isEmpty() && newMsg.getEmbeds().isEmpty()) return;
 
-        try
-        {
-            msg.editMessage(newMsg).queue(action, e ->
-            {
-                if (!(e instanceof PermissionException))
-                {
-                    Logging.exception(MessageUtilities.class, e);
-                }
-            });
-        }
-        catch (PermissionException ignored) {}
-        catch (Exception e)
-        {
-            Logging.exception(MessageUtilities.class, e);
-        }
+        RequestQueue.edit(msg.getChannel().getId(), msg.getId(), RequestQueue.priority.COMMAND,
+                () -> msg.editMessage(newMsg)).whenComplete((result, e) -> handle(result, e, action));
     }
 
     // blocking
@@ -167,23 +131,32 @@ public class MessageUtilities
 
     /**
      * attempts to remove a message, asynchronous (non-blocking)
+     * Deletions are the lowest priority, and any waiting edit of the message is dropped
      * @param msg the message to delete
      * @param action a non null Consumer will do operations on the results returned
      */
     public static void deleteMsg(Message msg, Consumer<Void> action)
     {
-        try
+        RequestQueue.delete(msg.getChannel().getId(), msg.getId(), RequestQueue.priority.PRUNE,
+                () -> msg.delete()).whenComplete((result, e) -> handle(result, e, action));
+    }
+
+    /**
+     * queues a request against a channel, the consumer is run on success and
+     * failures other than missing permissions are logged
+     */
+    private static <T> void queue(MessageChannel chan, RequestQueue.priority priority, Supplier<RestAction<T>> request, Consumer<T> action)
+    {
+        RequestQueue.submit(chan.getId(), priority, request).whenComplete((result, e) -> handle(result, e, action));
+    }
+
+    private static <T> void handle(T result, Throwable e, Consumer<T> action)
+    {
+        if(e == null)
         {
-            msg.delete().queue(action, e ->
-            {
-                if (!(e instanceof PermissionException))
-                {
-                    Logging.exception(MessageUtilities.class, e);
-                }
-            });
+            if(action != null) action.accept(result);
         }
-        catch( PermissionException ignored) { }
-        catch( Exception e)
+        else if(!(e instanceof PermissionException))
         {
             Logging.exception(MessageUtilities.class, e);
         }
@@ -0,0 +1,307 @@
+package ws.nmathe.saber.utils;
+
+import net.dv8tion.jda.core.requests.RestAction;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Outbound queue for the REST requests the bot makes against a channel
+ * Each channel has at most one request in flight, the channel's waiting requests are sent in order of
+ * their priority so that announcements are not held up behind a backlog of display edits in the same
+ * discord rate limit bucket.  A waiting edit of a message is replaced by a later edit of the same
+ * message of equal or higher priority (a later edit of lower priority is dropped instead), and
+ * dropped if the message is deleted.  Time from submission to completion is tracked per priority.
+ */
+public class RequestQueue
+{
+    /**
+     * request classes, highest priority first
+     */
+    public enum priority { ANNOUNCEMENT, REMINDER, COMMAND, DISPLAY, PRUNE }
+
+    private static final Map<String, ChannelQueue> channels = new ConcurrentHashMap<>();
+    private static final AtomicLong sequence = new AtomicLong();   // orders requests of equal priority
+
+    // per priority statistics
+    private static final Map<priority, LongAdder> completed = new EnumMap<>(priority.class);
+    private static final Map<priority, LongAdder> latency = new EnumMap<>(priority.class);
+    private static final Map<priority, LongAdder> merged = new EnumMap<>(priority.class);
+    static
+    {
+        for(priority p : priority.values())
+        {
+            completed.put(p, new LongAdder());
+            latency.put(p, new LongAdder());
+            merged.put(p, new LongAdder());
+        }
+    }
+
+    /**
+     * queues a request against a channel
+     * @param channelId ID of the channel the request targets
+     * @param p priority class of the request
+     * @param action creates the request when it is due to be sent
+     * @return future completed by the request's success or failure
+     */
+    public static <T> CompletableFuture<T> submit(String channelId, priority p, Supplier<RestAction<T>> action)
+    {
+        Request<T> request = new Request<>(p, null, false, action);
+        enqueue(channelId, request);
+        return request.future;
+    }
+
+    /**
+     * queues an edit of a message, replacing any edit of the message which is still waiting
+     * @param channelId ID of the channel the message belongs to
+     * @param messageId ID of the message
+     * @param p priority class of the request
+     * @param action creates the request when it is due to be sent
+     * @return future completed by the edit which is eventually sent
+     */
+    public static <T> CompletableFuture<T> edit(String channelId, String messageId, priority p, Supplier<RestAction<T>> action)
+    {
+        Request<T> request = new Request<>(p, messageId, false, action);
+        enqueue(channelId, request);
+        return request.future;
+    }
+
+    /**
+     * queues the deletion of a message, any waiting edit of the message is dropped
+     * @param channelId ID of the channel the message belongs to
+     * @param messageId ID of the message
+     * @param p priority class of the request
+     * @param action creates the request when it is due to be sent
+     * @return future completed by the request's success or failure
+     */
+    public static <T> CompletableFuture<T> delete(String channelId, String messageId, priority p, Supplier<RestAction<T>> action)
+    {
+        Request<T> request = new Request<>(p, messageId, true, action);
+        enqueue(channelId, request);
+        return request.future;
+    }
+
+    /**
+     * @param p priority class
+     * @return average time in milliseconds from a request being queued to it's completion
+     */
+    public static long getAverageLatency(priority p)
+    {
+        long count = completed.get(p).sum();
+        return count==0 ? 0 : latency.get(p).sum()/count;
+    }
+
+    /**
+     * generates a short summary of each priority class, used by the stats command
+     * @return multi-line string
+     */
+    public static String getStatusString()
+    {
+        int waiting = 0;
+        for(ChannelQueue queue : channels.values())
+        {
+            waiting += queue.size();
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%13s: %d waiting, %d channels\n", "Queued", waiting, channels.size()));
+        for(priority p : priority.values())
+        {
+            builder.append(String.format("%13s: %d done, %d merged, %dms latency\n",
+                    p.name(), completed.get(p).sum(), merged.get(p).sum(), getAverageLatency(p)));
+        }
+        return builder.toString();
+    }
+
+    private static void enqueue(String channelId, Request<?> request)
+    {
+        while(true)
+        {
+            ChannelQueue queue = channels.computeIfAbsent(channelId, key -> new ChannelQueue(channelId));
+            if(queue.add(request)) return;
+            // the queue was retired while idle, retry with a new queue
+        }
+    }
+
+    /**
+     * the waiting requests of a single channel
+     */
+    private static class ChannelQueue
+    {
+        private final String channelId;
+        private final PriorityQueue<Request<?>> waiting = new PriorityQueue<>();
+        private boolean busy = false;       // if a request is in flight
+        private boolean retired = false;    // if the queue has been removed from the channel map
+
+        ChannelQueue(String channelId)
+        {
+            this.channelId = channelId;
+        }
+
+        synchronized int size()
+        {
+            return this.waiting.size();
+        }
+
+        /**
+         * @return false if the queue has been retired and the request was not accepted
+         */
+        @SuppressWarnings("unchecked")
+        boolean add(Request<?> request)
+        {
+            List<Request<?>> dropped = new ArrayList<>();   // waiting edits made obsolete by a deletion
+            boolean start;
+            synchronized(this)
+            {
+                if(this.retired) return false;
+
+                if(request.messageId != null)
+                {
+                    Iterator<Request<?>> iterator = this.waiting.iterator();
+                    while(iterator.hasNext())
+                    {
+                        Request<?> other = iterator.next();
+                        if(other.isDelete || !request.messageId.equals(other.messageId)) continue;
+
+                        if(request.isDelete)
+                        {
+                            // the message is going away, the waiting edit completes as if skipped
+                            iterator.remove();
+                            merged.get(other.priority).increment();
+                            dropped.add(other);
+                        }
+                        else if(request.priority.compareTo(other.priority) > 0)
+                        {
+                            // a lower priority edit (such as a display refresh) may have been rendered from
+                            // data older than the waiting edit, the new edit is dropped and completes with
+                            // the result of the waiting edit
+                            merged.get(request.priority).increment();
+                            ((Request) other).supersede(request);
+                            return true;
+                        }
+                        else
+                        {
+                            // the waiting edit is superseded, it completes with the result of the new request
+                            iterator.remove();
+                            merged.get(other.priority).increment();
+                            request.supersede((Request) other);
+                        }
+                    }
+                }
+                this.waiting.add(request);
+                start = !this.busy;
+                this.busy = true;
+            }
+
+            // dependent callbacks are run outside of the queue's lock
+            for(Request<?> other : dropped)
+            {
+                other.future.complete(null);
+            }
+            if(start) this.next();
+            return true;
+        }
+
+        /**
+         * sends the highest priority waiting request, or marks the queue idle
+         */
+        private void next()
+        {
+            Request<?> request;
+            synchronized(this)
+            {
+                request = this.waiting.poll();
+                if(request == null)
+                {
+                    this.busy = false;
+                    this.retired = true;
+                    channels.remove(this.channelId, this);
+                    return;
+                }
+            }
+            request.send(this::next);
+        }
+    }
+
+    /**
+     * a single queued request
+     */
+    private static class Request<T> implements Comparable<Request<?>>
+    {
+        private priority priority;
+        private final String messageId;     // message the request modifies, if any
+        private final boolean isDelete;
+        private final Supplier<RestAction<T>> action;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final List<Request<T>> superseded = new ArrayList<>();
+        private final long queued = System.currentTimeMillis();
+        private final long order = sequence.incrementAndGet();
+
+        Request(priority priority, String messageId, boolean isDelete, Supplier<RestAction<T>> action)
+        {
+            this.priority = priority;
+            this.messageId = messageId;
+            this.isDelete = isDelete;
+            this.action = action;
+        }
+
+        /**
+         * takes the place of a waiting request, which completes when this request completes
+         */
+        void supersede(Request<T> other)
+        {
+            if(other.priority.compareTo(this.priority) < 0) this.priority = other.priority;
+            this.superseded.addAll(other.superseded);
+            this.superseded.add(other);
+        }
+
+        /**
+         * sends the request, running the callback once it has completed
+         */
+        void send(Runnable callback)
+        {
+            try
+            {
+                this.action.get().queue(result -> this.complete(callback, result, null),
+                        error -> this.complete(callback, null, error));
+            }
+            catch(Exception e)
+            {
+                // completed from another thread, so that a channel whose requests all fail immediately
+                // (such as on missing permissions) does not send it's next request recursively
+                CompletableFuture.runAsync(() -> this.complete(callback, null, e));
+            }
+        }
+
+        /**
+         * superseded requests are completed first (oldest first) so that their
+         * callbacks cannot overwrite state recorded by the callbacks of this request
+         */
+        private void complete(Runnable callback, T result, Throwable error)
+        {
+            completed.get(this.priority).increment();
+            latency.get(this.priority).add(System.currentTimeMillis() - this.queued);
+            callback.run();
+
+            for(Request<T> other : this.superseded)
+            {
+                if(error == null) other.future.complete(result);
+                else other.future.completeExceptionally(error);
+            }
+            if(error == null) this.future.complete(result);
+            else this.future.completeExceptionally(error);
+        }
+
+        @Override
+        public int compareTo(Request<?> other)
+        {
+            int cmp = this.priority.compareTo(other.priority);
+            if(cmp != 0) return cmp;
+            return Long.compare(this.order, other.order);
+        }
+    }
+}
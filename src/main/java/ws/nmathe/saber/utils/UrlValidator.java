@@ -0,0 +1,189 @@
+package ws.nmathe.saber.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ExecutorManager;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Checks whether urls used in event displays can be reached
+ * Checks are run on the VERIFY pool and their results are cached for every shard, reachable urls for
+ * VALID_TTL hours and unreachable urls for INVALID_TTL minutes.  Rendering an event only consults the
+ * cache, an url which has not yet been checked is used if it is well formed and is checked in the background.
+ */
+public class UrlValidator
+{
+    private static final long VALID_TTL = 24;          // hours a reachable url is remembered
+    private static final long INVALID_TTL = 30;        // minutes an unreachable url is remembered
+    private static final int CACHE_SIZE = 50000;
+    private static final int TIMEOUT = 5000;           // connect and read timeout (milliseconds)
+    private static final int PREFETCH_LIMIT = 500;     // background checks are skipped while this many are queued
+
+    private static final Cache<String, Boolean> valid = CacheBuilder.newBuilder()
+            .expireAfterWrite(VALID_TTL, TimeUnit.HOURS)
+            .maximumSize(CACHE_SIZE)
+            .recordStats()
+            .build();
+    private static final Cache<String, Boolean> invalid = CacheBuilder.newBuilder()
+            .expireAfterWrite(INVALID_TTL, TimeUnit.MINUTES)
+            .maximumSize(CACHE_SIZE)
+            .build();
+
+    // checks which have been started but have not finished, so that an url is never checked twice at once
+    private static final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * determines if an url may be used in an event display without doing any I/O
+     * @param url the url, may be null
+     * @return false if the url is malformed or was found to be unreachable
+     */
+    public static boolean isUsable(String url)
+    {
+        if(url == null) return false;
+        if(valid.getIfPresent(url) != null) return true;
+        if(invalid.getIfPresent(url) != null) return false;
+        if(!isWellFormed(url)) return false;
+
+        // optimistically use the url until the background check completes
+        prefetch(url);
+        return true;
+    }
+
+    /**
+     * starts a background check of an url if its result is not already cached
+     * @param url the url, may be null
+     */
+    public static void prefetch(String url)
+    {
+        if(url == null || isCached(url) || !isWellFormed(url)) return;
+        if(Main.getExecutorManager().getQueueDepth(ExecutorManager.pool.VERIFY) >= PREFETCH_LIMIT) return;
+        verify(url);
+    }
+
+    /**
+     * checks if an url can be reached, using the cached result when one exists
+     * @param url the url
+     * @return future which completes with the result of the check
+     */
+    public static CompletableFuture<Boolean> verify(String url)
+    {
+        if(valid.getIfPresent(url) != null) return CompletableFuture.completedFuture(true);
+        if(invalid.getIfPresent(url) != null) return CompletableFuture.completedFuture(false);
+        if(!isWellFormed(url))
+        {
+            invalid.put(url, false);
+            return CompletableFuture.completedFuture(false);
+        }
+
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inFlight.putIfAbsent(url, future);
+        if(existing != null) return existing;
+
+        ExecutorService executor = Main.getExecutorManager().get(ExecutorManager.pool.VERIFY);
+        boolean rejected = false;
+        try
+        {
+            executor.execute(() ->
+            {
+                boolean result = connect(url);
+                if(result) valid.put(url, true);
+                else invalid.put(url, false);
+                inFlight.remove(url, future);
+                future.complete(result);
+            });
+        }
+        catch(RejectedExecutionException e)
+        {
+            Logging.warn(UrlValidator.class, "Unable to check url: " + e.getMessage());
+            rejected = true;
+        }
+
+        // a shut down pool drops the check without running it, the url is then left unchecked
+        if(rejected || executor.isShutdown())
+        {
+            inFlight.remove(url, future);
+            future.complete(false);
+        }
+        return future;
+    }
+
+    /**
+     * checks if an url can be reached, waiting for the check to complete
+     * @param url the url
+     * @return true if the url was reachable
+     */
+    public static boolean verifyNow(String url)
+    {
+        try
+        {
+            return verify(url).get(2*TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch(ExecutionException | TimeoutException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * retrieves the hit/miss statistics of the reachable url cache
+     * @return CacheStats
+     */
+    public static CacheStats getCacheStats()
+    {
+        return valid.stats();
+    }
+
+    private static boolean isCached(String url)
+    {
+        return valid.getIfPresent(url) != null || invalid.getIfPresent(url) != null;
+    }
+
+    private static boolean isWellFormed(String url)
+    {
+        try
+        {
+            String protocol = (new URL(url)).getProtocol();
+            return protocol.equals("http") || protocol.equals("https");
+        }
+        catch(Exception e)
+        {
+            return false;
+        }
+    }
+
+    private static boolean connect(String url)
+    {
+        URLConnection connection = null;
+        try
+        {
+            connection = (new URL(url)).openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.connect();
+            return true;
+        }
+        catch(Exception e)
+        {
+            return false;
+        }
+        finally
+        {
+            if(connection instanceof HttpURLConnection)
+            {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+}
@@ -7,7 +7,6 @@ import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.core.schedule.ScheduleEntry;
 
-import java.net.URL;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
@@ -163,15 +162,7 @@ public class VerifyUtilities
      */
     public static boolean verifyUrl(String arg)
     {
-        try
-        {
-            (new URL(arg)).openConnection().connect();
-        }
-        catch(Exception e)
-        {
-            return false;
-        }
-        return true;
+        return UrlValidator.verifyNow(arg);
     }
 
 
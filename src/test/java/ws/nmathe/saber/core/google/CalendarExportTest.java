@@ -0,0 +1,176 @@
+package ws.nmathe.saber.core.google;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.calendar.Calendar;
+import com.google.api.services.calendar.model.Event;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the batched calendar export against a stub batch endpoint
+ */
+public class CalendarExportTest
+{
+    private static final String BOUNDARY = "batch_saber_test";
+    private static final Pattern REQUEST_LINE = Pattern.compile("(?m)^(POST|PUT) \\S+ HTTP/1\\.1");
+
+    /**
+     * answers calendar api batches, the status of each request is chosen by the order in which it was received
+     */
+    private static class StubEndpoint extends MockHttpTransport
+    {
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger received = new AtomicInteger();
+        private final AtomicInteger inserted = new AtomicInteger();
+        private final Map<Integer, Integer> statuses;      // status by the request's position, others succeed
+
+        StubEndpoint(Map<Integer, Integer> statuses)
+        {
+            this.statuses = statuses;
+        }
+
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, String url)
+        {
+            return new MockLowLevelHttpRequest(url)
+            {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException
+                {
+                    StringBuilder content = new StringBuilder();
+                    int parts = 0;
+                    Matcher matcher = REQUEST_LINE.matcher(this.getContentAsString());
+                    while(matcher.find())
+                    {
+                        parts++;
+                        content.append("--").append(BOUNDARY).append("\r\n")
+                                .append("Content-Type: application/http\r\n")
+                                .append("Content-ID: <response-").append(parts).append(">\r\n\r\n")
+                                .append(respond(matcher.group(1)));
+                    }
+                    content.append("--").append(BOUNDARY).append("--\r\n");
+                    batchSizes.add(parts);
+
+                    return new MockLowLevelHttpResponse()
+                            .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+                            .setContent(content.toString());
+                }
+            };
+        }
+
+        private String respond(String method)
+        {
+            int status = this.statuses.getOrDefault(this.received.incrementAndGet(), 200);
+            String body;
+            switch(status)
+            {
+                case 200:
+                    String id = method.equals("POST") ? "google" + this.inserted.incrementAndGet() : "updated";
+                    body = "{\"id\":\"" + id + "\"}";
+                    break;
+                case 429:
+                    body = error(429, "rateLimitExceeded");
+                    break;
+                default:
+                    body = error(status, status == 403 ? "rateLimitExceeded" : "forbidden");
+                    break;
+            }
+            return "HTTP/1.1 " + status + " " + (status == 200 ? "OK" : "Error") + "\r\n" +
+                    "Content-Type: application/json; charset=UTF-8\r\n\r\n" + body + "\r\n";
+        }
+
+        private static String error(int code, String reason)
+        {
+            return "{\"error\":{\"errors\":[{\"domain\":\"usageLimits\",\"reason\":\"" + reason + "\"," +
+                    "\"message\":\"" + reason + "\"}],\"code\":" + code + ",\"message\":\"" + reason + "\"}}";
+        }
+    }
+
+    private static Calendar service(StubEndpoint endpoint)
+    {
+        return new Calendar.Builder(endpoint, JacksonFactory.getDefaultInstance(), null)
+                .setApplicationName("saber-test")
+                .build();
+    }
+
+    /**
+     * creates export requests, every fourth request updates an existing google event
+     */
+    private static List<CalendarConverter.ExportRequest> requests(int count)
+    {
+        List<CalendarConverter.ExportRequest> requests = new ArrayList<>();
+        for(int i=0; i<count; i++)
+        {
+            String googleId = i%4 == 0 ? "existing" + i : null;
+            requests.add(new CalendarConverter.ExportRequest(i, googleId, new Event().setSummary("event " + i)));
+        }
+        return requests;
+    }
+
+    @Test
+    public void requestsAreSplitIntoBatches()
+    {
+        StubEndpoint endpoint = new StubEndpoint(Collections.emptyMap());
+        Map<Integer, String> inserted = new ConcurrentHashMap<>();
+
+        boolean success = new CalendarConverter()
+                .sendExportRequests("address", service(endpoint), requests(120), inserted);
+
+        assertTrue(success);
+        List<Integer> sizes = new ArrayList<>(endpoint.batchSizes);
+        Collections.sort(sizes);
+        assertEquals(Arrays.asList(20, 50, 50), sizes);
+        assertEquals(90, inserted.size());
+        assertFalse(inserted.containsKey(0));   // updates do not record an ID
+    }
+
+    @Test
+    public void rateLimitedRequestsAreRetried()
+    {
+        Map<Integer, Integer> statuses = new HashMap<>();
+        statuses.put(3, 403);
+        statuses.put(17, 429);
+        statuses.put(42, 403);
+        StubEndpoint endpoint = new StubEndpoint(statuses);
+        Map<Integer, String> inserted = new ConcurrentHashMap<>();
+
+        long start = System.currentTimeMillis();
+        boolean success = new CalendarConverter()
+                .sendExportRequests("address", service(endpoint), requests(60), inserted);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(success);
+        assertEquals(63, endpoint.received.get());
+        assertEquals(3, endpoint.batchSizes.size());
+        assertTrue(endpoint.batchSizes.contains(3));      // the retry batch holds only the rejected requests
+        assertEquals(45, inserted.size());
+        assertTrue(elapsed >= 1000);                      // the retry waits out the backoff
+    }
+
+    @Test
+    public void otherFailuresAreNotRetried()
+    {
+        StubEndpoint endpoint = new StubEndpoint(Collections.singletonMap(5, 404));
+        Map<Integer, String> inserted = new ConcurrentHashMap<>();
+
+        boolean success = new CalendarConverter()
+                .sendExportRequests("address", service(endpoint), requests(10), inserted);
+
+        assertFalse(success);
+        assertEquals(10, endpoint.received.get());
+        assertEquals(1, endpoint.batchSizes.size());
+    }
+}
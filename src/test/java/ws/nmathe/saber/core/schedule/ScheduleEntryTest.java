@@ -0,0 +1,98 @@
+package ws.nmathe.saber.core.schedule;
+
+import org.bson.Document;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ws.nmathe.saber.Main;
+
+import java.lang.reflect.Field;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the modification tracking of events loaded from the events collection
+ */
+public class ScheduleEntryTest
+{
+    private static final ZoneId ZONE = ZoneId.of("America/New_York");
+    private static final int DAILY = 1<<7 | 1;      // legacy repeat, every day
+
+    /**
+     * replaces the bot's schedule manager with one which does not use the database
+     */
+    @BeforeClass
+    public static void install() throws ReflectiveOperationException
+    {
+        Field field = Main.class.getDeclaredField("scheduleManager");
+        field.setAccessible(true);
+        field.set(null, new ScheduleManager()
+        {
+            @Override
+            public ZoneId getTimeZone(String cId)
+            {
+                return ZONE;
+            }
+        });
+    }
+
+    /**
+     * creates an event document as written before the recurrence's start was stored
+     */
+    private static Document legacyDocument(ZonedDateTime start)
+    {
+        return new Document()
+                .append("_id", 1234567)
+                .append("messageId", "400000000000000000")
+                .append("channelId", "300000000000000000")
+                .append("guildId", "200000000000000000")
+                .append("title", "Daily Standup")
+                .append("start", Date.from(start.toInstant()))
+                .append("end", Date.from(start.plusHours(1).toInstant()))
+                .append("comments", new ArrayList<String>())
+                .append("hasStarted", false)
+                .append("repeat", DAILY)
+                .append("count", 5);
+    }
+
+    @Test
+    public void legacyDocumentWritesOriginalStart()
+    {
+        ZonedDateTime start = ZonedDateTime.now(ZONE).plusHours(2).truncatedTo(ChronoUnit.MINUTES);
+        ScheduleEntry se = new ScheduleEntry(legacyDocument(start));
+
+        assertTrue(se.getDirtyFields().contains("orig_start"));
+        assertEquals(start.toInstant(), se.getRecurrence().getOriginalStart().toInstant());
+    }
+
+    @Test
+    public void storedOriginalStartAdvancesCount()
+    {
+        ZonedDateTime first = ZonedDateTime.now(ZONE).minusDays(3).minusHours(1).truncatedTo(ChronoUnit.MINUTES);
+        Document document = legacyDocument(first.plusDays(4))
+                .append("orig_start", Date.from(first.toInstant()));
+        ScheduleEntry se = new ScheduleEntry(document);
+
+        assertFalse(se.getDirtyFields().contains("orig_start"));
+        assertEquals(Integer.valueOf(2), se.getRecurrence().countRemaining());
+    }
+
+    @Test
+    public void startAndRepeatChangesWriteOriginalStart()
+    {
+        ZonedDateTime start = ZonedDateTime.now(ZONE).plusHours(2).truncatedTo(ChronoUnit.MINUTES);
+        ScheduleEntry se = new ScheduleEntry(legacyDocument(start));
+
+        se.clearDirtyFields();
+        se.setStart(start.plusDays(1));
+        assertTrue(se.getDirtyFields().contains("orig_start"));
+
+        se.clearDirtyFields();
+        se.setRepeat(1<<3);     // daily
+        assertTrue(se.getDirtyFields().contains("orig_start"));
+    }
+}